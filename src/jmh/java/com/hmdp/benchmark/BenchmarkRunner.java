@@ -0,0 +1,35 @@
+package com.hmdp.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * 基准测试入口
+ * 无参数时按 -Djmh.threads 指定的线程数(默认1,8,32)依次运行所有基准，结果写入 target/jmh-{线程数}.json；
+ * 有参数时交给JMH命令行处理，如 -p strategy=mutex -p scenario=storm -t 16
+ * @author meidaia
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        if (args.length > 0) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        for (String threads : System.getProperty("jmh.threads", "1,8,32").split(",")) {
+            int count = Integer.parseInt(threads.trim());
+            Options options = new OptionsBuilder()
+                    .include(CacheStrategyBenchmark.class.getSimpleName())
+                    .threads(count)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/jmh-" + count + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.listener.CacheInvalidateListener;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.IdSegmentAllocator;
+import com.hmdp.utils.LocalCache;
+import com.hmdp.utils.RedisClient;
+import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SingleFlight;
+import com.hmdp.utils.LocalKeyLock;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 对比RedisClient的三种缓存查询策略：缓存穿透(空值)、互斥锁、逻辑过期
+ * 场景：
+ * hit      - 数据都在缓存中，随机读取
+ * stampede - 读取缓存中没有的key，多个线程同时未命中同一个key
+ * storm    - 定时让所有key同时过期，模拟缓存雪崩
+ * 吞吐量和延迟分位数由JMH输出，每轮结束时打印数据库查询次数，用于对比各策略挡住了多少回源
+ * @author meidaia
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheStrategyBenchmark {
+    public static final String PASS_THROUGH = "passThrough";
+    public static final String MUTEX = "mutex";
+    public static final String LOGICAL_EXPIRE = "logicalExpire";
+
+    public static final String HIT = "hit";
+    public static final String STAMPEDE = "stampede";
+    public static final String STORM = "storm";
+
+    // stampede场景下每个key被读取的次数
+    private static final int READS_PER_KEY = 64;
+
+    @Param({PASS_THROUGH, MUTEX, LOGICAL_EXPIRE})
+    private String strategy;
+
+    @Param({HIT, STAMPEDE, STORM})
+    private String scenario;
+
+    // 数据库查询耗时，单位微秒
+    @Param("2000")
+    private long dbLatencyMicros;
+
+    // redis单次往返耗时，单位微秒
+    @Param("100")
+    private long redisRttMicros;
+
+    // 缓存中的key数量
+    @Param("1000")
+    private int keys;
+
+    // storm场景下key同时过期的间隔，单位毫秒
+    @Param("500")
+    private long stormIntervalMillis;
+
+    // 是否开启本地一级缓存
+    @Param("false")
+    private boolean localCacheEnabled;
+
+    private AnnotationConfigApplicationContext context;
+    private FakeRedisConnectionFactory redis;
+    private RedisClient redisClient;
+    private LocalCache localCache;
+    private ScheduledExecutorService storm;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder dbQueries = new LongAdder();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // 关闭调试日志，避免日志输出影响结果
+        LoggingSystem.get(getClass().getClassLoader()).setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.WARN);
+        context = new AnnotationConfigApplicationContext();
+        context.register(Config.class, SingleFlight.class, HotKeyDetector.class, CacheMetrics.class,
+                CacheInvalidateListener.class, IdSegmentAllocator.class, LocalKeyLock.class, SimpleRedisLock.class,
+                RedisClient.class);
+        context.registerBean(LocalCache.class, () -> {
+            LocalCache cache = new LocalCache();
+            if (localCacheEnabled) {
+                cache.addRegion(CACHE_SHOP_KEY, LOCAL_CACHE_SHOP_SIZE, LOCAL_CACHE_SHOP_TTL, TimeUnit.SECONDS);
+            }
+            cache.setHotRegion(HOT_KEY_LOCAL_SIZE, HOT_KEY_LOCAL_TTL, TimeUnit.SECONDS);
+            return cache;
+        });
+        // 发布的消息直接投递给本节点的监听器
+        redis = new FakeRedisConnectionFactory(redisRttMicros, TimeUnit.MICROSECONDS, (channel, body) -> {
+            if (LOCK_RELEASE_CHANNEL.equals(channel)) {
+                context.getBean(SimpleRedisLock.class).onRelease(new String(body));
+            } else {
+                context.getBean(CacheInvalidateListener.class).onMessage(new DefaultMessage(channel.getBytes(), body), null);
+            }
+        });
+        context.registerBean(StringRedisTemplate.class, () -> new StringRedisTemplate(redis));
+        context.refresh();
+        redisClient = context.getBean(RedisClient.class);
+        localCache = context.getBean(LocalCache.class);
+
+        populate(false);
+        if (STORM.equals(scenario)) {
+            storm = Executors.newSingleThreadScheduledExecutor();
+            storm.scheduleAtFixedRate(() -> populate(true), stormIntervalMillis, stormIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        long q = queries.sumThenReset();
+        long db = dbQueries.sumThenReset();
+        System.out.printf("%n[%s/%s] queries=%d, db=%d, db per 1k queries=%.2f, redis round trips=%d%n",
+                strategy, scenario, q, db, q == 0 ? 0 : db * 1000.0 / q, redis.resetRoundTrips());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (storm != null) {
+            storm.shutdownNow();
+        }
+        context.close();
+    }
+
+    @Benchmark
+    public Shop query() {
+        long id;
+        if (STAMPEDE.equals(scenario)) {
+            // 缓存中没有的id，连续READS_PER_KEY次读取同一个id
+            id = keys + 1 + sequence.getAndIncrement() / READS_PER_KEY;
+        } else {
+            id = ThreadLocalRandom.current().nextInt(keys) + 1;
+        }
+        queries.increment();
+        String key = CACHE_SHOP_KEY + id;
+        switch (strategy) {
+            case PASS_THROUGH:
+                return redisClient.queryWithPassThrough(key, Shop.class, id, this::queryDb, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            case MUTEX:
+                return redisClient.queryWithMutex(key, LOCK_SHOP_KEY + id, Shop.class, id, this::queryDb, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            case LOGICAL_EXPIRE:
+                return redisClient.queryWithLogicalExpire(key, LOCK_SHOP_KEY + id, Shop.class, id, this::queryDb, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            default:
+                throw new IllegalArgumentException("未知的策略 " + strategy);
+        }
+    }
+
+    /**
+     * 写入所有key
+     * @param expired 是否让所有key过期：逻辑过期写入已过期的数据，其他策略直接清空redis
+     */
+    private void populate(boolean expired) {
+        if (expired && !LOGICAL_EXPIRE.equals(strategy)) {
+            redis.flushAll();
+        } else {
+            Map<String, Shop> shops = new HashMap<>();
+            for (long id = 1; id <= keys; id++) {
+                shops.put(CACHE_SHOP_KEY + id, newShop(id));
+            }
+            if (LOGICAL_EXPIRE.equals(strategy)) {
+                redisClient.setBatchWithLogicExpire(shops, WARM_UP_REBUILD_DELTA,
+                        expired ? -2 : CACHE_SHOP_TTL, expired ? -1 : CACHE_SHOP_TTL + 1, TimeUnit.MINUTES);
+            } else {
+                shops.forEach((key, shop) -> redisClient.setWithExpirce(key, shop, CACHE_SHOP_TTL, TimeUnit.MINUTES));
+            }
+        }
+        for (long id = 1; id <= keys; id++) {
+            localCache.evict(CACHE_SHOP_KEY + id);
+        }
+    }
+
+    /**
+     * 模拟数据库查询
+     */
+    private Shop queryDb(Long id) {
+        dbQueries.increment();
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(dbLatencyMicros));
+        return newShop(id);
+    }
+
+    private static Shop newShop(long id) {
+        return new Shop()
+                .setId(id)
+                .setName("103茶餐厅" + id)
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.now())
+                .setUpdateTime(LocalDateTime.now());
+    }
+
+    /**
+     * 与线上一致的编码和指标配置，开启定时任务让热点探测正常衰减
+     */
+    @Configuration
+    @EnableScheduling
+    static class Config {
+        @Bean
+        public CacheCodec cacheCodec() {
+            return new BinaryCacheCodec(CACHE_COMPRESS_THRESHOLD);
+        }
+
+        @Bean
+        public MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.hmdp.benchmark;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisSentinelConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * 基准测试用的内存版redis
+ * 只实现RedisClient用到的命令：GET、SET(含过期时间和NX)、MGET、DEL、PUBLISH和管道，
+ * 以及 SimpleRedisLock 的 lock.lua、unlock.lua、lock_renew.lua 三个脚本(按sha识别，用java实现相同逻辑)；
+ * 每次往返按配置的耗时阻塞，模拟网络延迟，管道只算一次往返。
+ * 与真实redis不同，命令不是单线程串行执行的，热点key上的排队开销不会体现出来
+ * @author meidaia
+ */
+public class FakeRedisConnectionFactory implements RedisConnectionFactory {
+    private final Map<ByteBuffer, Entry> store = new ConcurrentHashMap<>();
+    // 锁的key -> 锁，与普通key分开存放，脚本之间用 synchronized 保证原子
+    private final Map<ByteBuffer, LockEntry> locks = new HashMap<>();
+    private static final String LOCK_SHA = sha("lock.lua");
+    private static final String UNLOCK_SHA = sha("unlock.lua");
+    private static final String RENEW_SHA = sha("lock_renew.lua");
+    // 单次往返耗时
+    private final long rttNanos;
+    // 发布消息的回调，channel -> message
+    private final BiConsumer<String, byte[]> publisher;
+    // 往返次数
+    private final LongAdder roundTrips = new LongAdder();
+
+    /**
+     * @param rtt 单次往返耗时
+     * @param timeUnit 时间单位
+     * @param publisher 发布消息的回调，直接投递给本节点的监听器
+     */
+    public FakeRedisConnectionFactory(long rtt, TimeUnit timeUnit, BiConsumer<String, byte[]> publisher) {
+        this.rttNanos = timeUnit.toNanos(rtt);
+        this.publisher = publisher;
+    }
+
+    /**
+     * 清空所有数据，模拟key同时过期
+     */
+    public void flushAll() {
+        store.clear();
+    }
+
+    /**
+     * 获取往返次数并清零
+     */
+    public long resetRoundTrips() {
+        return roundTrips.sumThenReset();
+    }
+
+    @Override
+    public RedisConnection getConnection() {
+        return (RedisConnection) Proxy.newProxyInstance(RedisConnection.class.getClassLoader(),
+                new Class<?>[]{RedisConnection.class}, new Connection());
+    }
+
+    @Override
+    public RedisClusterConnection getClusterConnection() {
+        throw new UnsupportedOperationException("不支持集群");
+    }
+
+    @Override
+    public boolean getConvertPipelineAndTxResults() {
+        return true;
+    }
+
+    @Override
+    public RedisSentinelConnection getSentinelConnection() {
+        throw new UnsupportedOperationException("不支持哨兵");
+    }
+
+    @Override
+    public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+        return null;
+    }
+
+    private void roundTrip() {
+        roundTrips.increment();
+        if (rttNanos > 0) {
+            LockSupport.parkNanos(rttNanos);
+        }
+    }
+
+    private byte[] get(byte[] key) {
+        ByteBuffer k = ByteBuffer.wrap(key);
+        Entry entry = store.get(k);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expired()) {
+            store.remove(k, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    private Boolean set(byte[] key, byte[] value, Expiration expiration, RedisStringCommands.SetOption option) {
+        long expireAt = expiration == null || expiration.isPersistent()
+                ? Long.MAX_VALUE
+                : System.nanoTime() + expiration.getExpirationTimeInMilliseconds() * 1_000_000L;
+        Entry entry = new Entry(value, expireAt);
+        ByteBuffer k = ByteBuffer.wrap(key);
+        if (option == RedisStringCommands.SetOption.SET_IF_ABSENT) {
+            // 已过期的视为不存在
+            boolean[] set = {false};
+            store.compute(k, (ignored, old) -> {
+                if (old == null || old.expired()) {
+                    set[0] = true;
+                    return entry;
+                }
+                return old;
+            });
+            return set[0];
+        }
+        if (option == RedisStringCommands.SetOption.SET_IF_PRESENT) {
+            return store.computeIfPresent(k, (ignored, old) -> old.expired() ? null : entry) == entry;
+        }
+        store.put(k, entry);
+        return true;
+    }
+
+    private static String sha(String path) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(path));
+        return script.getSha1();
+    }
+
+    /**
+     * 执行锁脚本，参数与对应的lua脚本一致
+     */
+    private Object evalLock(String sha, byte[][] keysAndArgs) {
+        ByteBuffer key = ByteBuffer.wrap(keysAndArgs[0]);
+        String owner = new String(keysAndArgs[1], StandardCharsets.UTF_8);
+        String arg = new String(keysAndArgs[2], StandardCharsets.UTF_8);
+        long now = System.nanoTime();
+        synchronized (locks) {
+            LockEntry lock = locks.get(key);
+            if (lock != null && now - lock.expireAt > 0) {
+                locks.remove(key);
+                lock = null;
+            }
+            if (LOCK_SHA.equals(sha)) {
+                if (lock != null && !lock.holders.containsKey(owner)) {
+                    return TimeUnit.NANOSECONDS.toMillis(lock.expireAt - now);
+                }
+                if (lock == null) {
+                    lock = new LockEntry();
+                    locks.put(key, lock);
+                }
+                lock.holders.merge(owner, 1L, Long::sum);
+                lock.expireAt = now + TimeUnit.MILLISECONDS.toNanos(Long.parseLong(arg));
+                return null;
+            }
+            if (lock == null || !lock.holders.containsKey(owner)) {
+                return 0L;
+            }
+            if (RENEW_SHA.equals(sha)) {
+                lock.expireAt = now + TimeUnit.MILLISECONDS.toNanos(Long.parseLong(arg));
+                return 1L;
+            }
+            if (lock.holders.merge(owner, -1L, Long::sum) > 0) {
+                return 2L;
+            }
+            locks.remove(key);
+        }
+        publisher.accept(arg, keysAndArgs[0]);
+        return 1L;
+    }
+
+    private Long del(byte[]... keys) {
+        long count = 0;
+        for (byte[] key : keys) {
+            if (store.remove(ByteBuffer.wrap(key)) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 单个连接，管道中的命令在关闭管道时一次返回结果
+     */
+    private class Connection implements InvocationHandler {
+        private List<Object> pipeline;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "openPipeline":
+                    pipeline = new ArrayList<>();
+                    return null;
+                case "closePipeline":
+                    List<Object> results = pipeline == null ? new ArrayList<>() : pipeline;
+                    pipeline = null;
+                    roundTrip();
+                    return results;
+                case "isPipelined":
+                    return pipeline != null;
+                case "isQueueing":
+                case "isClosed":
+                case "isSubscribed":
+                    return false;
+                case "close":
+                    return null;
+                case "getNativeConnection":
+                    return this;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "FakeRedisConnection";
+                default:
+                    return command(method, args);
+            }
+        }
+
+        private Object command(Method method, Object[] args) {
+            Object result;
+            switch (method.getName()) {
+                case "get":
+                    result = get((byte[]) args[0]);
+                    break;
+                case "set":
+                    result = args.length == 2
+                            ? set((byte[]) args[0], (byte[]) args[1], null, RedisStringCommands.SetOption.UPSERT)
+                            : set((byte[]) args[0], (byte[]) args[1], (Expiration) args[2], (RedisStringCommands.SetOption) args[3]);
+                    break;
+                case "mGet":
+                    List<byte[]> values = new ArrayList<>();
+                    for (byte[] key : (byte[][]) args[0]) {
+                        values.add(get(key));
+                    }
+                    result = values;
+                    break;
+                case "del":
+                    result = del((byte[][]) args[0]);
+                    break;
+                case "publish":
+                    publisher.accept(new String((byte[]) args[0]), (byte[]) args[1]);
+                    result = 1L;
+                    break;
+                case "evalSha":
+                    if (!(args[0] instanceof String) || !(LOCK_SHA.equals(args[0]) || UNLOCK_SHA.equals(args[0]) || RENEW_SHA.equals(args[0]))) {
+                        throw new UnsupportedOperationException("不支持的脚本 " + args[0]);
+                    }
+                    result = evalLock((String) args[0], (byte[][]) args[3]);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("不支持的命令 " + method.getName());
+            }
+            if (pipeline != null) {
+                pipeline.add(result);
+                return null;
+            }
+            roundTrip();
+            return result;
+        }
+    }
+
+    private static class LockEntry {
+        // 线程标识 -> 重入次数
+        private final Map<String, Long> holders = new HashMap<>();
+        private long expireAt;
+    }
+
+    private static class Entry {
+        private final byte[] value;
+        private final long expireAt;
+
+        Entry(byte[] value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+
+        boolean expired() {
+            return expireAt != Long.MAX_VALUE && System.nanoTime() - expireAt > 0;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.hmdp.benchmark;
+
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 秒杀压测用的内存版RabbitMQ
+ * 发送时用与线上相同的消息转换器生成消息(含消息id)，放入内存队列后立即确认；
+ * 消费线程逐条或按批取出消息交给回调，回调抛出异常时消息重新入队，与监听容器默认的重新投递一致
+ * @author meidaia
+ */
+public class InMemoryBroker extends RabbitTemplate {
+    private final BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+    private final List<Thread> consumers = new ArrayList<>();
+    // 重新投递的消息数
+    private final LongAdder redelivered = new LongAdder();
+    private volatile boolean running = true;
+
+    public InMemoryBroker() {
+        Jackson2JsonMessageConverter converter = new Jackson2JsonMessageConverter();
+        converter.setCreateMessageIds(true);
+        setMessageConverter(converter);
+    }
+
+    /**
+     * 不连接broker，不需要ConnectionFactory
+     */
+    @Override
+    public void afterPropertiesSet() {
+    }
+
+    @Override
+    public void convertAndSend(String exchange, String routingKey, Object object, CorrelationData correlationData) throws AmqpException {
+        queue.add(getMessageConverter().toMessage(object, new MessageProperties()));
+        if (correlationData != null) {
+            correlationData.getFuture().set(new CorrelationData.Confirm(true, null));
+        }
+    }
+
+    /**
+     * 把消息体转换回发送时的对象
+     */
+    public Object fromMessage(Message message) {
+        return getMessageConverter().fromMessage(message);
+    }
+
+    /**
+     * 启动消费线程
+     * @param threads 线程数
+     * @param batchSize 每批最多消息数，1为逐条消费
+     * @param batchTimeout 凑批时等待新消息的最长时间，单位毫秒
+     * @param handler 消费回调
+     */
+    public void start(int threads, int batchSize, long batchTimeout, Consumer<List<Message>> handler) {
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(() -> consume(batchSize, batchTimeout, handler), "broker-consumer-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            consumers.add(thread);
+        }
+    }
+
+    private void consume(int batchSize, long batchTimeout, Consumer<List<Message>> handler) {
+        List<Message> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                Message first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchTimeout);
+                while (batch.size() < batchSize) {
+                    Message next = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                try {
+                    handler.accept(new ArrayList<>(batch));
+                } catch (Exception e) {
+                    redelivered.add(batch.size());
+                    queue.addAll(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 队列中未消费的消息数
+     */
+    public int depth() {
+        return queue.size();
+    }
+
+    public long redelivered() {
+        return redelivered.sum();
+    }
+
+    public void shutdown() throws InterruptedException {
+        running = false;
+        for (Thread consumer : consumers) {
+            consumer.join(1000);
+        }
+    }
+}
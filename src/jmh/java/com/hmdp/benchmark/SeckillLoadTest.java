@@ -0,0 +1,468 @@
+package com.hmdp.benchmark;
+
+import com.github.fppt.jedismock.RedisServer;
+import com.hmdp.dto.OrderResultDTO;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.listener.CreateOrderListener;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.impl.SeckillVoucherServiceImpl;
+import com.hmdp.service.impl.VoucherOrderServiceImpl;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.ConsumedMessageRegistry;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.IdSegmentAllocator;
+import com.hmdp.utils.LocalCache;
+import com.hmdp.utils.OrderIntake;
+import com.hmdp.utils.OrderPublisher;
+import com.hmdp.utils.OrderResultStore;
+import com.hmdp.utils.OrderRingBuffer;
+import com.hmdp.utils.RedisClient;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SingleFlight;
+import com.hmdp.utils.SoldOutRegistry;
+import com.hmdp.utils.LocalKeyLock;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.mybatis.spring.annotation.MapperScan;
+import org.redisson.api.RedissonClient;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.boot.Banner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.amqp.RabbitAutoConfiguration;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀全链路压测
+ * 在一台机器上运行完整的秒杀链路：seckill.lua 扣减库存、getUniqueId 生成订单id、OrderPublisher 发送消息、
+ * CreateOrderListener 写入订单表；intake=ring 时改为 OrderRingBuffer 写入本地日志后直接写入订单表，用于对比两种方式。redis默认使用进程内的jedis-mock(支持lua)，也可以用 redis=host:port 指定真实redis；
+ * RabbitMQ由 {@link InMemoryBroker} 代替，MySQL由H2(MySQL模式)代替。
+ * N个用户各请求 attempts 次，随机分布到各优惠券上，统计吞吐量、请求延迟分位数和订单落库延迟
+ * (秒杀成功返回到订单写入数据库)，最后校验没有超卖、没有重复购买、没有丢单，校验失败时以非0状态退出。
+ * 参数为 key=value，如 users=50000 vouchers=4 stock=2000 shards=4 threads=128 batch=200 intake=ring
+ * jedis-mock和H2的性能与真实中间件不同，结果用于同一环境下的前后对比，不代表线上容量
+ * @author meidaia
+ */
+public class SeckillLoadTest {
+    private final int users;
+    private final int vouchers;
+    private final int stock;
+    private final int shards;
+    private final int attempts;
+    private final int threads;
+    private final int consumers;
+    private final int batch;
+    private final long batchTimeout;
+    private final String redis;
+    private final long drainTimeout;
+    private final String intake;
+
+    private final Recorder latency = new Recorder(3);
+    private final Histogram lag = new Histogram(3);
+    private final LongAdder soldOut = new LongAdder();
+    private final LongAdder duplicate = new LongAdder();
+    private final LongAdder other = new LongAdder();
+    // 其他失败原因 -> 次数
+    private final Map<String, LongAdder> otherReasons = new ConcurrentHashMap<>();
+    // 优惠券id -> 秒杀成功数
+    private final Map<Long, AtomicLong> sold = new ConcurrentHashMap<>();
+    // 秒杀成功的 用户id:优惠券id
+    private final Set<String> purchases = ConcurrentHashMap.newKeySet();
+    private final LongAdder duplicatePurchases = new LongAdder();
+    // 订单id -> 秒杀成功返回的时间
+    private final Map<Long, Long> sentAt = new ConcurrentHashMap<>();
+    // 订单id -> 订单处理完成(写入结果)的时间
+    private static final Map<Long, Long> completedAt = new ConcurrentHashMap<>();
+
+    private final List<String> failures = new ArrayList<>();
+
+    public SeckillLoadTest(Map<String, String> options) {
+        users = Integer.parseInt(options.getOrDefault("users", "20000"));
+        vouchers = Integer.parseInt(options.getOrDefault("vouchers", "1"));
+        stock = Integer.parseInt(options.getOrDefault("stock", "1000"));
+        shards = Integer.parseInt(options.getOrDefault("shards", "1"));
+        attempts = Integer.parseInt(options.getOrDefault("attempts", "2"));
+        threads = Integer.parseInt(options.getOrDefault("threads", "64"));
+        consumers = Integer.parseInt(options.getOrDefault("consumers", "4"));
+        batch = Integer.parseInt(options.getOrDefault("batch", "1"));
+        batchTimeout = Long.parseLong(options.getOrDefault("batchTimeout", "50"));
+        redis = options.getOrDefault("redis", "");
+        drainTimeout = Long.parseLong(options.getOrDefault("drainTimeout", "60"));
+        intake = options.getOrDefault("intake", "mq");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index <= 0) {
+                throw new IllegalArgumentException("参数格式为 key=value：" + arg);
+            }
+            options.put(arg.substring(0, index), arg.substring(index + 1));
+        }
+        boolean passed = false;
+        try {
+            passed = new SeckillLoadTest(options).run();
+        } finally {
+            // jedis-mock的线程不是守护线程，需要主动退出
+            System.exit(passed ? 0 : 1);
+        }
+    }
+
+    public boolean run() throws Exception {
+        RedisServer server = null;
+        String host = "127.0.0.1";
+        int port;
+        if (redis.isEmpty()) {
+            server = RedisServer.newRedisServer(0).start();
+            port = server.getBindPort();
+        } else {
+            host = redis.substring(0, redis.indexOf(':'));
+            port = Integer.parseInt(redis.substring(redis.indexOf(':') + 1));
+        }
+        SpringApplication application = new SpringApplication(Config.class);
+        application.setWebApplicationType(WebApplicationType.NONE);
+        application.setBannerMode(Banner.Mode.OFF);
+        // 不读取 application.yaml，只使用下面的配置
+        ConfigurableApplicationContext context = application.run(
+                "--spring.config.name=seckill-loadtest",
+                "--spring.datasource.url=jdbc:h2:mem:hmdp;MODE=MySQL;DB_CLOSE_DELAY=-1",
+                "--spring.datasource.driver-class-name=org.h2.Driver",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--spring.datasource.schema=classpath:seckill-loadtest-schema.sql",
+                "--spring.datasource.initialization-mode=always",
+                "--spring.datasource.hikari.maximum-pool-size=" + (consumers + 4),
+                "--spring.redis.host=" + host,
+                "--spring.redis.port=" + port,
+                "--spring.task.scheduling.pool.size=4",
+                "--hmdp.order.spill-file=target/seckill-loadtest-spill.log",
+                "--hmdp.order.intake=" + intake,
+                "--hmdp.order.ring.batch=" + Math.max(batch, 1),
+                "--hmdp.order.ring.journal=target/seckill-loadtest-ring.journal",
+                "--logging.level.root=WARN");
+        try {
+            List<Long> voucherIds = prepare(context);
+            InMemoryBroker broker = context.getBean(InMemoryBroker.class);
+            startConsumers(broker, context.getBean(CreateOrderListener.class));
+
+            long start = System.nanoTime();
+            int requests = load(context.getBean(IVoucherOrderService.class), voucherIds);
+            long elapsed = System.nanoTime() - start;
+            long drained = drain(broker, context.getBean(OrderIntake.class));
+            broker.shutdown();
+
+            report(requests, elapsed, drained, broker.redelivered());
+            verify(context, voucherIds);
+        } finally {
+            context.close();
+            if (server != null) {
+                server.stop();
+            }
+        }
+        failures.forEach(failure -> System.out.println("  [FAIL] " + failure));
+        System.out.println(failures.isEmpty() ? "ALL CHECKS PASSED" : failures.size() + " CHECK(S) FAILED");
+        return failures.isEmpty();
+    }
+
+    /**
+     * 写入优惠券：数据库、布隆过滤器和redis库存，与新增秒杀券的流程一致
+     */
+    private List<Long> prepare(ConfigurableApplicationContext context) {
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        ISeckillVoucherService seckillVoucherService = context.getBean(ISeckillVoucherService.class);
+        IdBloomFilter idBloomFilter = context.getBean(IdBloomFilter.class);
+        SeckillStock seckillStock = context.getBean(SeckillStock.class);
+        SoldOutRegistry soldOutRegistry = context.getBean(SoldOutRegistry.class);
+        LocalDateTime now = LocalDateTime.now();
+        List<Long> voucherIds = new ArrayList<>(vouchers);
+        for (long id = 1; id <= vouchers; id++) {
+            jdbcTemplate.update("INSERT INTO tb_voucher (id) VALUES (?)", id);
+            SeckillVoucher seckillVoucher = new SeckillVoucher()
+                    .setVoucherId(id)
+                    .setStock(stock)
+                    .setBeginTime(now.minusMinutes(1))
+                    .setEndTime(now.plusHours(1));
+            seckillVoucherService.save(seckillVoucher);
+            idBloomFilter.add(IdBloomFilter.VOUCHER, id);
+            seckillStock.init(id, stock, shards, seckillVoucher.getBeginTime(), seckillVoucher.getEndTime());
+            soldOutRegistry.clear(id);
+            sold.put(id, new AtomicLong());
+            voucherIds.add(id);
+        }
+        return voucherIds;
+    }
+
+    /**
+     * 消费线程的调用方式与监听容器一致：batch 大于1时批量消费，否则逐条消费
+     */
+    private void startConsumers(InMemoryBroker broker, CreateOrderListener listener) {
+        broker.start(consumers, batch, batchTimeout, messages -> {
+            List<org.springframework.messaging.Message<String>> payloads = new ArrayList<>(messages.size());
+            for (Message message : messages) {
+                payloads.add(MessageBuilder.withPayload((String) broker.fromMessage(message))
+                        .setHeader(AmqpHeaders.MESSAGE_ID, message.getMessageProperties().getMessageId())
+                        .build());
+            }
+            if (batch > 1) {
+                listener.createOrderBatch(payloads);
+            } else {
+                for (org.springframework.messaging.Message<String> payload : payloads) {
+                    listener.createOrder(payload.getPayload(), payload.getHeaders().get(AmqpHeaders.MESSAGE_ID, String.class));
+                }
+            }
+        });
+    }
+
+    /**
+     * 发起请求，每个用户随机选一张优惠券请求 attempts 次，所有请求打乱后由 threads 个线程并发执行
+     * @return 请求数
+     */
+    private int load(IVoucherOrderService voucherOrderService, List<Long> voucherIds) throws InterruptedException {
+        int requests = users * attempts;
+        long[] userOf = new long[requests];
+        long[] voucherOf = new long[requests];
+        for (int user = 0; user < users; user++) {
+            long voucherId = voucherIds.get(ThreadLocalRandom.current().nextInt(voucherIds.size()));
+            for (int attempt = 0; attempt < attempts; attempt++) {
+                userOf[user * attempts + attempt] = user + 1;
+                voucherOf[user * attempts + attempt] = voucherId;
+            }
+        }
+        for (int i = requests - 1; i > 0; i--) {
+            int j = ThreadLocalRandom.current().nextInt(i + 1);
+            long user = userOf[i];
+            userOf[i] = userOf[j];
+            userOf[j] = user;
+            long voucher = voucherOf[i];
+            voucherOf[i] = voucherOf[j];
+            voucherOf[j] = voucher;
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < requests) {
+                    long begin = System.nanoTime();
+                    Result result;
+                    try {
+                        result = voucherOrderService.seckillVoucher(voucherOf[i], userOf[i]);
+                    } catch (Exception e) {
+                        result = Result.fail(e.getClass().getSimpleName() + ": " + e.getMessage());
+                    }
+                    long end = System.nanoTime();
+                    latency.recordValue(TimeUnit.NANOSECONDS.toMicros(end - begin));
+                    record(userOf[i], voucherOf[i], result, end);
+                }
+            }, "seckill-load-" + t);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return requests;
+    }
+
+    private void record(long userId, long voucherId, Result result, long end) {
+        if (Boolean.TRUE.equals(result.getSuccess())) {
+            sold.get(voucherId).incrementAndGet();
+            sentAt.put((Long) result.getData(), end);
+            if (!purchases.add(userId + ":" + voucherId)) {
+                duplicatePurchases.increment();
+            }
+        } else if ("库存不足".equals(result.getErrorMsg())) {
+            soldOut.increment();
+        } else if ("请勿重复下单".equals(result.getErrorMsg())) {
+            duplicate.increment();
+        } else {
+            other.increment();
+            otherReasons.computeIfAbsent(String.valueOf(result.getErrorMsg()), reason -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * 等待所有秒杀成功的订单消费完成
+     * @return 从压测结束到消费完成的耗时，单位纳秒
+     */
+    private long drain(InMemoryBroker broker, OrderIntake orderIntake) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(drainTimeout);
+        while (System.nanoTime() < deadline) {
+            if (orderIntake.pending() == 0 && broker.depth() == 0 && completedAt.keySet().containsAll(sentAt.keySet())) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        long drained = System.nanoTime() - start;
+        sentAt.forEach((orderId, sent) -> {
+            Long completed = completedAt.get(orderId);
+            if (completed != null) {
+                // 消费可能在请求返回之前完成，按0计算
+                lag.recordValue(TimeUnit.NANOSECONDS.toMicros(Math.max(0, completed - sent)));
+            }
+        });
+        return drained;
+    }
+
+    private void report(int requests, long elapsed, long drained, long redelivered) {
+        Histogram histogram = latency.getIntervalHistogram();
+        double seconds = elapsed / 1e9;
+        System.out.println();
+        System.out.println("==== seckill load test ====");
+        System.out.printf("users=%d vouchers=%d stock=%d shards=%d attempts=%d threads=%d consumers=%d batch=%d intake=%s redis=%s%n",
+                users, vouchers, stock, shards, attempts, threads, consumers, batch, intake, redis.isEmpty() ? "jedis-mock" : redis);
+        System.out.printf("requests: %d in %.2f s, %.0f req/s; success=%d soldOut=%d duplicate=%d other=%d%n",
+                requests, seconds, requests / seconds, sentAt.size(), soldOut.sum(), duplicate.sum(), other.sum());
+        otherReasons.forEach((reason, count) -> System.out.printf("  other: %s x %d%n", reason, count.sum()));
+        System.out.printf("latency (us): p50=%d p99=%d p999=%d max=%d%n",
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99),
+                histogram.getValueAtPercentile(99.9), histogram.getMaxValue());
+        System.out.printf("order lag (ms): p50=%.2f p99=%.2f p999=%.2f max=%.2f; drained %.2f s after load, redelivered=%d%n",
+                lag.getValueAtPercentile(50) / 1e3, lag.getValueAtPercentile(99) / 1e3,
+                lag.getValueAtPercentile(99.9) / 1e3, lag.getMaxValue() / 1e3, drained / 1e9, redelivered);
+    }
+
+    /**
+     * 校验：redis和数据库都没有超卖，库存与订单数一致，没有重复购买，秒杀成功的订单都已落库
+     */
+    private void verify(ConfigurableApplicationContext context, List<Long> voucherIds) {
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        SeckillStock seckillStock = context.getBean(SeckillStock.class);
+        System.out.println("checks:");
+        for (Long voucherId : voucherIds) {
+            long success = sold.get(voucherId).get();
+            Long orders = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM tb_voucher_order WHERE voucher_id = ?", Long.class, voucherId);
+            Long dbStock = jdbcTemplate.queryForObject(
+                    "SELECT stock FROM tb_seckill_voucher WHERE voucher_id = ?", Long.class, voucherId);
+            Long redisStock = seckillStock.remaining(voucherId);
+            System.out.printf("  voucher %d: success=%d orders=%d dbStock=%d redisStock=%d%n",
+                    voucherId, success, orders, dbStock, redisStock);
+            check(success <= stock, "voucher " + voucherId + " oversold in redis: " + success + " > " + stock);
+            check(orders != null && orders <= stock, "voucher " + voucherId + " oversold in db: " + orders + " > " + stock);
+            check(dbStock != null && orders != null && dbStock == stock - orders,
+                    "voucher " + voucherId + " db stock " + dbStock + " != " + stock + " - " + orders);
+            check(redisStock != null && redisStock == stock - success,
+                    "voucher " + voucherId + " redis stock " + redisStock + " != " + stock + " - " + success);
+            check(orders != null && orders == success,
+                    "voucher " + voucherId + " has " + orders + " orders for " + success + " successful requests");
+        }
+        check(duplicatePurchases.sum() == 0, duplicatePurchases.sum() + " duplicate successful requests");
+        Long duplicateOrders = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM (SELECT user_id, voucher_id " +
+                "FROM tb_voucher_order GROUP BY user_id, voucher_id HAVING COUNT(*) > 1) t", Long.class);
+        check(duplicateOrders != null && duplicateOrders == 0, duplicateOrders + " users bought the same voucher twice");
+        Set<Long> persisted = new HashSet<>(jdbcTemplate.queryForList("SELECT id FROM tb_voucher_order", Long.class));
+        long lost = sentAt.keySet().stream().filter(id -> !persisted.contains(id)).count();
+        check(lost == 0, lost + " successful orders missing from db");
+    }
+
+    private void check(boolean passed, String failure) {
+        if (!passed) {
+            failures.add(failure);
+        }
+    }
+
+    /**
+     * 秒杀链路用到的组件，自动配置只保留数据源、MyBatis-Plus、redis和指标，RabbitMQ由内存版代替；
+     * OrderPublisher 和 OrderRingBuffer 按 hmdp.order.intake 只创建其中一个
+     */
+    @SpringBootConfiguration
+    @EnableAutoConfiguration(exclude = RabbitAutoConfiguration.class)
+    @EnableAspectJAutoProxy(exposeProxy = true)
+    @EnableScheduling
+    @MapperScan("com.hmdp.mapper")
+    @Import({RedisClient.class, IdSegmentAllocator.class, SingleFlight.class, HotKeyDetector.class, CacheMetrics.class, IdBloomFilter.class,
+            SeckillStock.class, SimpleRedisLock.class, LocalKeyLock.class, SoldOutRegistry.class, OrderPublisher.class, OrderRingBuffer.class,
+            ConsumedMessageRegistry.class, SeckillVoucherServiceImpl.class, VoucherOrderServiceImpl.class,
+            CreateOrderListener.class})
+    static class Config {
+        @Bean
+        public LocalCache localCache() {
+            LocalCache localCache = new LocalCache();
+            localCache.setHotRegion(HOT_KEY_LOCAL_SIZE, HOT_KEY_LOCAL_TTL, TimeUnit.SECONDS);
+            return localCache;
+        }
+
+        @Bean
+        public CacheCodec cacheCodec() {
+            return new BinaryCacheCodec(CACHE_COMPRESS_THRESHOLD);
+        }
+
+        /**
+         * 写入结果时记录订单处理完成的时间，两种下单方式都在这里结束
+         */
+        @Bean
+        public OrderResultStore orderResultStore() {
+            return new OrderResultStore() {
+                @Override
+                public void save(List<OrderResultDTO> results) {
+                    super.save(results);
+                    long now = System.nanoTime();
+                    results.forEach(result -> completedAt.put(result.getOrderId(), now));
+                }
+            };
+        }
+
+        @Bean
+        public InMemoryBroker rabbitTemplate() {
+            return new InMemoryBroker();
+        }
+
+        /**
+         * 秒杀链路不使用redisson，只为满足依赖注入
+         */
+        @Bean
+        public RedissonClient redissonClient() {
+            return (RedissonClient) Proxy.newProxyInstance(RedissonClient.class.getClassLoader(),
+                    new Class<?>[]{RedissonClient.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            case "toString":
+                                return "UnusedRedissonClient";
+                            case "shutdown":
+                                return null;
+                            default:
+                                throw new UnsupportedOperationException("压测环境不支持redisson");
+                        }
+                    });
+        }
+    }
+}
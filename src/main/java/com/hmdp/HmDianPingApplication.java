@@ -7,11 +7,14 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @MapperScan("com.hmdp.mapper")
 @SpringBootApplication
 // 启动时将代理对象暴露出来
 @EnableAspectJAutoProxy(exposeProxy = true)
+// 开启定时任务
+@EnableScheduling
 public class HmDianPingApplication {
 
     public static void main(String[] args) {
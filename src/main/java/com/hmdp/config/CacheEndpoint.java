@@ -0,0 +1,46 @@
+package com.hmdp.config;
+
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * 缓存统计端点 /actuator/cache，按key前缀汇总命中率和各阶段耗时
+ * 详细的分位数通过 /actuator/metrics/cache.* 查看；
+ * 手动预热 POST /actuator/cache/shop，全表扫描只在管理端口开放，业务端口不可调用
+ * @author meidaia
+ */
+@Component
+@Endpoint(id = "cache")
+public class CacheEndpoint {
+    @Autowired
+    private CacheMetrics cacheMetrics;
+    @Autowired
+    private IShopService shopService;
+
+    @ReadOperation
+    public Map<String, Map<String, Object>> cache() {
+        return cacheMetrics.snapshot();
+    }
+
+    /**
+     * 手动预热缓存
+     * @param name 缓存名称，目前只支持 shop
+     * @return 预热的数据条数
+     */
+    @WriteOperation
+    public long warmUp(@Selector String name) {
+        if (!"shop".equals(name)) {
+            throw new InvalidEndpointRequestException("不支持预热的缓存：" + name, "unknown cache " + name);
+        }
+        return shopService.warmUpCache();
+    }
+}
@@ -0,0 +1,51 @@
+package com.hmdp.config;
+
+import cn.hutool.core.util.BooleanUtil;
+import com.hmdp.service.IShopService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_WARM_UP_KEY;
+
+/**
+ * 启动时预热缓存
+ * 多个节点同时启动时，一个预热周期内只有一个节点执行
+ * @author meidaia
+ */
+@Slf4j
+@Component
+public class CacheWarmUpRunner implements ApplicationRunner {
+    @Autowired
+    private IShopService shopService;
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Value("${hmdp.cache.warm-up:true}")
+    private boolean enabled;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        Boolean first = redisTemplate.opsForValue().setIfAbsent(CACHE_WARM_UP_KEY, "1", CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        if (!BooleanUtil.isTrue(first)) {
+            log.info("其他节点已完成店铺缓存预热，跳过");
+            return;
+        }
+        try {
+            shopService.warmUpCache();
+        } catch (Exception e) {
+            // 预热失败不影响启动，缓存在首次访问时加载
+            redisTemplate.delete(CACHE_WARM_UP_KEY);
+            log.error("店铺缓存预热失败", e);
+        }
+    }
+}
@@ -4,19 +4,22 @@ import com.hmdp.interceptor.LoginInterceptor;
 import com.hmdp.interceptor.RefreshTokenInterceptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.SignedTokenService;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
     @Autowired
-    private StringRedisTemplate redisTemplate;
+    private LoginSessionCache loginSessionCache;
+    @Autowired
+    private SignedTokenService signedTokenService;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         // 刷新token
-        registry.addInterceptor(new RefreshTokenInterceptor(redisTemplate))
+        registry.addInterceptor(new RefreshTokenInterceptor(loginSessionCache, signedTokenService))
                 .addPathPatterns("/**")
                 .order(0);
         // 登录拦截器
@@ -24,6 +27,7 @@ public class MvcConfig implements WebMvcConfigurer {
                 .excludePathPatterns(
                         "/user/code",
                         "/user/login",
+                        "/user/refresh",
                         "/blog/hot",
                         "/shop/**",
                         "/shop-type/**",
@@ -0,0 +1,64 @@
+package com.hmdp.config;
+
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import static com.hmdp.utils.MQConstants.*;
+
+/**
+ * RabbitMQ相关配置
+ * @author meidaia
+ */
+@Configuration
+public class RabbitConfig {
+
+    /**
+     * 批量消费的监听容器，攒够 size 条消息或 timeout 毫秒内没有新消息时交给监听器处理，
+     * 监听器返回(事务已提交)后整批确认，失败的订单由监听器重新投递或转入死信队列；
+     * 监听器抛出异常时按 spring.rabbitmq.listener.simple.retry 整批重试，用完后整批转入死信队列
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory batchContainerFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer,
+                                                                      ConnectionFactory connectionFactory,
+                                                                      @Value("${hmdp.order.batch.size:200}") int size,
+                                                                      @Value("${hmdp.order.batch.timeout:50}") long timeout) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(size);
+        factory.setReceiveTimeout(timeout);
+        // 预取数量不小于批量大小，否则凑不满一批
+        factory.setPrefetchCount(size);
+        return factory;
+    }
+
+    /**
+     * 创建订单的死信交换机，订单队列中被拒绝的消息转到这里
+     */
+    @Bean
+    public DirectExchange orderCreateDeadExchange() {
+        return new DirectExchange(ORDER_CREATE_DLX);
+    }
+
+    /**
+     * 创建订单的死信队列，不消费，由人工排查后补单
+     */
+    @Bean
+    public Queue orderCreateDeadQueue() {
+        return new Queue(ORDER_CREATE_DLQ, true);
+    }
+
+    @Bean
+    public Binding orderCreateDeadBinding() {
+        return BindingBuilder.bind(orderCreateDeadQueue()).to(orderCreateDeadExchange()).with(ORDER_CREATE_DEAD_KEY);
+    }
+}
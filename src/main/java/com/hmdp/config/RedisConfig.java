@@ -0,0 +1,80 @@
+package com.hmdp.config;
+
+import com.hmdp.listener.BloomFilterListener;
+import com.hmdp.listener.CacheInvalidateListener;
+import com.hmdp.listener.LockReleaseListener;
+import com.hmdp.listener.OrderResultListener;
+import com.hmdp.listener.SoldOutListener;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.LocalCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * Redis缓存相关配置
+ * @author meidaia
+ */
+@Configuration
+public class RedisConfig {
+
+    /**
+     * 本地一级缓存，只有注册过的key前缀才会进入本地缓存
+     */
+    @Bean
+    public LocalCache localCache() {
+        LocalCache localCache = new LocalCache();
+        localCache.addRegion(CACHE_SHOP_KEY, LOCAL_CACHE_SHOP_SIZE, LOCAL_CACHE_SHOP_TTL, TimeUnit.SECONDS);
+        // 登录会话，登出时广播删除
+        localCache.addRegion(LOGIN_USER_KEY, LOCAL_SESSION_SIZE, LOCAL_SESSION_TTL, TimeUnit.SECONDS);
+        // 热点key的短期副本
+        localCache.setHotRegion(HOT_KEY_LOCAL_SIZE, HOT_KEY_LOCAL_TTL, TimeUnit.SECONDS);
+        return localCache;
+    }
+
+    /**
+     * 缓存写入格式，读取时两种格式都支持
+     * 灰度发布时先以json上线所有节点，再切换为binary
+     */
+    @Bean
+    public CacheCodec cacheCodec(@Value("${hmdp.cache.codec:json}") String codec) {
+        if ("binary".equals(codec)) {
+            return new BinaryCacheCodec(CACHE_COMPRESS_THRESHOLD);
+        }
+        return new JsonCacheCodec();
+    }
+
+    /**
+     * redis发布订阅监听容器
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       CacheInvalidateListener cacheInvalidateListener,
+                                                                       BloomFilterListener bloomFilterListener,
+                                                                       SoldOutListener soldOutListener,
+                                                                       OrderResultListener orderResultListener,
+                                                                       LockReleaseListener lockReleaseListener) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // 缓存失效广播，各节点删除本地缓存
+        container.addMessageListener(cacheInvalidateListener, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        // 布隆过滤器新增id广播
+        container.addMessageListener(bloomFilterListener, new ChannelTopic(BLOOM_FILTER_CHANNEL));
+        // 秒杀券售罄广播
+        container.addMessageListener(soldOutListener, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+        // 订单创建结果广播，唤醒等待结果的请求
+        container.addMessageListener(orderResultListener, new ChannelTopic(SECKILL_RESULT_CHANNEL));
+        // 分布式锁释放广播，唤醒等待锁的线程
+        container.addMessageListener(lockReleaseListener, new ChannelTopic(LOCK_RELEASE_CHANNEL));
+        return container;
+    }
+}
@@ -0,0 +1,48 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.IdBloomFilter;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存状态 前端控制器
+ * </p>
+ *
+ * @author meidaia
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private IdBloomFilter idBloomFilter;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    /**
+     * 查询布隆过滤器大小和误判率
+     * @return 各布隆过滤器统计信息
+     */
+    @GetMapping("/bloom")
+    public Result queryBloomFilter() {
+        return Result.ok(idBloomFilter.stats());
+    }
+
+    /**
+     * 查询访问量最高的key
+     * @param limit 数量
+     * @return key、估算QPS、是否已提升为本地副本
+     */
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys(@RequestParam(value = "limit", defaultValue = "10") Integer limit) {
+        return Result.ok(hotKeyDetector.topK(limit));
+    }
+}
@@ -59,8 +59,16 @@ public class UserController {
             return Result.fail("邮箱格式错误");
         }
         // 登录功能
-        String token = userService.login(loginForm);
-        return Result.ok(token);
+        return userService.login(loginForm);
+    }
+
+    /**
+     * 刷新签名凭证
+     * @param refreshToken 登录或上次刷新时返回的刷新凭证
+     */
+    @PostMapping("/refresh")
+    public Result refresh(@RequestParam("refreshToken") String refreshToken){
+        return userService.refresh(refreshToken);
     }
 
     /**
@@ -68,9 +76,9 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout(){
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(@RequestHeader("authorization") String token){
+        userService.logout(token);
+        return Result.ok();
     }
 
     @GetMapping("/me")
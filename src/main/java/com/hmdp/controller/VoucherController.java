@@ -4,6 +4,7 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.IdBloomFilter;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -22,6 +23,8 @@ public class VoucherController {
 
     @Resource
     private IVoucherService voucherService;
+    @Resource
+    private IdBloomFilter idBloomFilter;
 
     /**
      * 新增普通券
@@ -31,6 +34,8 @@ public class VoucherController {
     @PostMapping
     public Result addVoucher(@RequestBody Voucher voucher) {
         voucherService.save(voucher);
+        // 加入布隆过滤器
+        idBloomFilter.add(IdBloomFilter.VOUCHER, voucher.getId());
         return Result.ok(voucher.getId());
     }
 
@@ -42,6 +47,8 @@ public class VoucherController {
     @PostMapping("seckill")
     public Result addSeckillVoucher(@RequestBody Voucher voucher) {
         voucherService.addSeckillVoucher(voucher);
+        // 加入布隆过滤器
+        idBloomFilter.add(IdBloomFilter.VOUCHER, voucher.getId());
         return Result.ok(voucher.getId());
     }
 
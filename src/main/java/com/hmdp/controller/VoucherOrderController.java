@@ -2,12 +2,20 @@ package com.hmdp.controller;
 
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillTicketDTO;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.OrderResultStore;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SoldOutRegistry;
+import com.hmdp.utils.UserHolder;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 /**
  * <p>
@@ -22,8 +30,55 @@ import org.springframework.web.bind.annotation.RestController;
 public class VoucherOrderController {
     @Autowired
     private IVoucherOrderService voucherOrderService;
+    @Autowired
+    private SeckillAdmission seckillAdmission;
+    @Autowired
+    private OrderResultStore orderResultStore;
+    @Autowired
+    private IdBloomFilter idBloomFilter;
+    @Autowired
+    private SoldOutRegistry soldOutRegistry;
+
     @PostMapping("seckill/{id}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
-        return voucherOrderService.seckillVoucher(voucherId);
+        // 不存在或已售罄的优惠券不进入准入控制，不占用令牌和排队
+        if (!idBloomFilter.mightContain(IdBloomFilter.VOUCHER, voucherId)) {
+            return Result.fail("优惠券不存在");
+        }
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        // 未超过限流配额，直接秒杀
+        if (seckillAdmission.tryAdmit(voucherId)) {
+            return voucherOrderService.seckillVoucher(voucherId);
+        }
+        // 超过配额，排队并返回凭证
+        SeckillTicketDTO ticket = seckillAdmission.enqueue(voucherId, UserHolder.getUser().getId());
+        if (ticket == null) {
+            return Result.fail("活动太火爆，请稍后再试");
+        }
+        return Result.ok(ticket);
+    }
+
+    /**
+     * 轮询排队结果
+     * @param ticket 排队凭证
+     */
+    @GetMapping("seckill/ticket/{ticket}")
+    public Result queryTicket(@PathVariable("ticket") String ticket) {
+        SeckillTicketDTO dto = seckillAdmission.queryTicket(ticket);
+        if (dto == null || !dto.getUserId().equals(UserHolder.getUser().getId())) {
+            return Result.fail("排队凭证不存在或已过期");
+        }
+        return Result.ok(dto);
+    }
+
+    /**
+     * 查询订单创建结果，还没有结果时等待，超时返回处理中
+     * @param orderId 订单id
+     */
+    @GetMapping("result/{orderId}")
+    public DeferredResult<Result> queryResult(@PathVariable("orderId") Long orderId) {
+        return orderResultStore.await(orderId, UserHolder.getUser().getId());
     }
 }
@@ -0,0 +1,21 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BloomFilterStatsDTO {
+    // 过滤器名称
+    private String name;
+    // 已插入的元素个数
+    private Long insertions;
+    // 位数
+    private Long bitSize;
+    // 哈希函数个数
+    private Integer hashFunctions;
+    // 当前误判率
+    private Double falsePositiveRate;
+}
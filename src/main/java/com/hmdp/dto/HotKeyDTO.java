@@ -0,0 +1,16 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HotKeyDTO {
+    private String key;
+    // 估算QPS
+    private Long qps;
+    // 是否已提升为本地副本
+    private Boolean hot;
+}
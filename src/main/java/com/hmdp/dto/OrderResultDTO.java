@@ -0,0 +1,24 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+
+/**
+ * 订单创建结果，由创建订单的消费者写入redis，客户端按订单id查询
+ */
+@Data
+@NoArgsConstructor
+@Accessors(chain = true)
+public class OrderResultDTO {
+    public static final String PENDING = "PENDING";
+    public static final String CREATED = "CREATED";
+    public static final String FAILED_DUPLICATE = "FAILED_DUPLICATE";
+    public static final String FAILED_STOCK = "FAILED_STOCK";
+
+    private Long orderId;
+    private Long userId;
+    private Long voucherId;
+    // 创建状态
+    private String status;
+}
@@ -0,0 +1,30 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+
+/**
+ * 秒杀排队凭证，请求超过限流配额时返回，客户端凭此轮询结果
+ */
+@Data
+@NoArgsConstructor
+@Accessors(chain = true)
+public class SeckillTicketDTO {
+    public static final String WAITING = "WAITING";
+    public static final String SUCCESS = "SUCCESS";
+    public static final String FAILED = "FAILED";
+
+    // 凭证id
+    private String ticket;
+    private Long voucherId;
+    private Long userId;
+    // 排队状态
+    private String status;
+    // 排队时前面的人数
+    private Integer position;
+    // 秒杀成功的订单id
+    private Long orderId;
+    // 失败原因
+    private String message;
+}
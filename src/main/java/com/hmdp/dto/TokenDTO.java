@@ -0,0 +1,20 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+
+/**
+ * 签名登录凭证，hmdp.session.mode=signed 时登录和刷新返回
+ */
+@Data
+@NoArgsConstructor
+@Accessors(chain = true)
+public class TokenDTO {
+    // 访问凭证，放在authorization请求头中
+    private String token;
+    // 刷新凭证，访问凭证过期后换取新的凭证，只能使用一次
+    private String refreshToken;
+    // 访问凭证的有效期，单位秒
+    private Long expiresIn;
+}
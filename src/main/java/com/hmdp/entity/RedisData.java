@@ -13,4 +13,12 @@ import java.time.LocalDateTime;
 public class RedisData<T> {
     private LocalDateTime expireTime;
     private T data;
+    /**
+     * 上次重建缓存的耗时，单位毫秒，用于提前刷新的概率计算
+     */
+    private Long delta;
+
+    public RedisData(LocalDateTime expireTime, T data) {
+        this(expireTime, data, null);
+    }
 }
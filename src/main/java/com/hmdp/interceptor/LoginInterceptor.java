@@ -2,12 +2,12 @@ package com.hmdp.interceptor;
 
 import com.hmdp.dto.UserDTO;
 import com.hmdp.utils.UserHolder;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-public class LoginInterceptor implements HandlerInterceptor {
+public class LoginInterceptor implements AsyncHandlerInterceptor {
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
         // 1. 获取threadLocal中的用户
@@ -26,4 +26,10 @@ public class LoginInterceptor implements HandlerInterceptor {
         // 移除用户
         UserHolder.removeUser();
     }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 异步请求在当前线程不会执行afterCompletion，移除用户，结果返回时重新进入拦截器
+        UserHolder.removeUser();
+    }
 }
@@ -0,0 +1,33 @@
+package com.hmdp.listener;
+
+import com.hmdp.utils.IdBloomFilter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 布隆过滤器新增id 监听器
+ * 消息格式为 过滤器名称:id
+ * @author meidaia
+ */
+@Slf4j
+@Component
+public class BloomFilterListener implements MessageListener {
+    @Autowired
+    private IdBloomFilter idBloomFilter;
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.lastIndexOf(':');
+        if (index <= 0) {
+            log.error("布隆过滤器消息格式错误：{}", body);
+            return;
+        }
+        idBloomFilter.addLocal(body.substring(0, index), Long.valueOf(body.substring(index + 1)));
+    }
+}
@@ -0,0 +1,39 @@
+package com.hmdp.listener;
+
+import com.hmdp.utils.LocalCache;
+import com.hmdp.utils.RedisClient;
+import com.hmdp.utils.SingleFlight;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 缓存失效 监听器
+ * 消息格式为 节点标识|key，收到其他节点广播的key后删除本地一级缓存；
+ * 本节点广播时已经删除过，不再删除，避免删掉重建后刚写入的本地缓存。无论来源都唤醒等待该key写入的线程
+ * @author meidaia
+ */
+@Slf4j
+@Component
+public class CacheInvalidateListener implements MessageListener {
+    @Autowired
+    private LocalCache localCache;
+    @Autowired
+    private SingleFlight singleFlight;
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.indexOf('|');
+        String key = body.substring(index + 1);
+        if (index < 0 || !RedisClient.NODE_ID.equals(body.substring(0, index))) {
+            localCache.evict(key);
+        }
+        singleFlight.wake(key);
+        log.debug("删除本地缓存 key={}", key);
+    }
+}
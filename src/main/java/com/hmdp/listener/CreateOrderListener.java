@@ -1,23 +1,52 @@
 package com.hmdp.listener;
 
 import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.OrderResultDTO;
 import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.ConsumedMessageRegistry;
+import com.hmdp.utils.OrderResultStore;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.annotation.Argument;
 import org.springframework.amqp.rabbit.annotation.Exchange;
 import org.springframework.amqp.rabbit.annotation.Queue;
 import org.springframework.amqp.rabbit.annotation.QueueBinding;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.AmqpHeaders;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.MQConstants.*;
 
 /**
  * 创建订单 监听器
+ * hmdp.order.batch.enabled 开启时批量消费，否则逐条消费；
+ * 事务提交后把每个订单的创建结果写入redis，供客户端查询；
+ * 重复投递的消息按消息id跳过，重复下单由订单表(user_id, voucher_id)唯一索引拒绝，不再逐条查询订单表；
+ * 创建失败的消息有限次重试后转入死信队列 {@link com.hmdp.utils.MQConstants#ORDER_CREATE_DLQ}，不会无限重新入队；
+ * hmdp.order.intake=ring 时不经过MQ，由 {@link com.hmdp.utils.OrderRingBuffer} 直接调用 saveOrders
  * @author meidaia
  */
 @Slf4j
@@ -27,35 +56,211 @@ public class CreateOrderListener {
     private IVoucherOrderService voucherOrderService;
     @Autowired
     private ISeckillVoucherService seckillVoucherService;
+    @Autowired
+    private VoucherOrderMapper voucherOrderMapper;
+    @Autowired
+    private OrderResultStore orderResultStore;
+    @Autowired
+    private ConsumedMessageRegistry consumedMessageRegistry;
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    // 开启批量消费时不启动逐条消费；处理失败时按 spring.rabbitmq.listener.simple.retry 重试，用完后转入死信队列
     @RabbitListener(bindings = @QueueBinding(
-        value = @Queue(name = ORDER_CREATE_QUEUE, durable = "true"),
+        value = @Queue(name = ORDER_CREATE_QUEUE, durable = "true", arguments = {
+                @Argument(name = "x-dead-letter-exchange", value = ORDER_CREATE_DLX),
+                @Argument(name = "x-dead-letter-routing-key", value = ORDER_CREATE_DEAD_KEY)}),
         exchange = @Exchange(name = ORDER_CREATE_EXCHANGE),
-            key = ORDER_CREATE_KEY))
-    public void createOrder(String msg) {
+            key = ORDER_CREATE_KEY),
+            autoStartup = "#{!${hmdp.order.batch.enabled:false}}")
+    public void createOrder(String msg, @Header(name = AmqpHeaders.MESSAGE_ID, required = false) String messageId) {
+        // 重复投递的消息直接跳过
+        if (!consumedMessageRegistry.filterConsumed(Collections.singletonList(messageId)).isEmpty()) {
+            log.info("消息 {} 已经消费过", messageId);
+            return;
+        }
         VoucherOrder order = JSONUtil.toBean(msg, VoucherOrder.class);
         // 创建订单
         CreateOrderListener proxy = (CreateOrderListener)AopContext.currentProxy();
-        proxy.createOrder(order);
-        log.info("创建用户 {} 成功，订单：{}", order.getUserId(), order.getId());
+        String status = proxy.createOrder(order);
+        consumedMessageRegistry.markConsumed(Collections.singletonList(messageId));
+        orderResultStore.save(Collections.singletonList(result(order, status)));
+        if (OrderResultDTO.CREATED.equals(status)) {
+            log.info("创建用户 {} 成功，订单：{}", order.getUserId(), order.getId());
+        }
+    }
+
+    /**
+     * 批量消费，整批在一个事务中创建订单，失败时逐条处理
+     * 成功的消息随整批确认，失败的消息重新投递，超过重试次数的转入死信队列
+     * @param msgs 消息
+     */
+    @RabbitListener(queues = ORDER_CREATE_QUEUE, containerFactory = "batchContainerFactory",
+            autoStartup = "${hmdp.order.batch.enabled:false}")
+    public void createOrderBatch(List<Message<String>> msgs) {
+        // 订单id -> 消息，跳过重复投递的消息
+        Map<Long, Message<String>> orderMessages = new LinkedHashMap<>();
+        List<String> messageIds = msgs.stream()
+                .map(msg -> msg.getHeaders().get(AmqpHeaders.MESSAGE_ID, String.class))
+                .collect(Collectors.toList());
+        Set<String> consumed = consumedMessageRegistry.filterConsumed(messageIds);
+        List<VoucherOrder> orders = new ArrayList<>(msgs.size());
+        for (int i = 0; i < msgs.size(); i++) {
+            String messageId = messageIds.get(i);
+            if (messageId != null && consumed.contains(messageId)) {
+                continue;
+            }
+            VoucherOrder order = JSONUtil.toBean(msgs.get(i).getPayload(), VoucherOrder.class);
+            orderMessages.put(order.getId(), msgs.get(i));
+            orders.add(order);
+        }
+        if (!consumed.isEmpty()) {
+            log.info("跳过已经消费过的消息 {} 条", consumed.size());
+        }
+        if (orders.isEmpty()) {
+            return;
+        }
+        // 处理失败的订单，对应的消息不记录为已消费
+        Set<Long> failed = saveOrders(orders);
+        consumedMessageRegistry.markConsumed(orderMessages.entrySet().stream()
+                .filter(entry -> !failed.contains(entry.getKey()))
+                .map(entry -> entry.getValue().getHeaders().get(AmqpHeaders.MESSAGE_ID, String.class))
+                .collect(Collectors.toList()));
+        if (!failed.isEmpty()) {
+            redeliver(failed.stream().map(orderMessages::get).collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * 重新投递创建失败的消息，保留原消息id并累加重试次数，超过 {@link com.hmdp.utils.MQConstants#ORDER_CREATE_MAX_RETRY} 次的转入死信队列
+     * 等待broker确认，有消息未确认时抛出异常，整批按容器的重试策略处理，已成功的消息重新投递时按消息id跳过
+     * @param msgs 失败的消息
+     */
+    private void redeliver(List<Message<String>> msgs) {
+        List<CorrelationData> correlations = new ArrayList<>(msgs.size());
+        int dead = 0;
+        for (Message<String> msg : msgs) {
+            String messageId = msg.getHeaders().get(AmqpHeaders.MESSAGE_ID, String.class);
+            Object retried = msg.getHeaders().get(ORDER_RETRY_HEADER);
+            int retry = retried instanceof Number ? ((Number) retried).intValue() + 1 : 1;
+            boolean toDead = retry > ORDER_CREATE_MAX_RETRY;
+            dead += toDead ? 1 : 0;
+            CorrelationData correlation = new CorrelationData();
+            rabbitTemplate.convertAndSend(toDead ? ORDER_CREATE_DLX : ORDER_CREATE_EXCHANGE,
+                    toDead ? ORDER_CREATE_DEAD_KEY : ORDER_CREATE_KEY, msg.getPayload(), message -> {
+                        if (messageId != null) {
+                            message.getMessageProperties().setMessageId(messageId);
+                        }
+                        message.getMessageProperties().setHeader(ORDER_RETRY_HEADER, retry);
+                        return message;
+                    }, correlation);
+            correlations.add(correlation);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ORDER_CONFIRM_TIMEOUT);
+        for (CorrelationData correlation : correlations) {
+            try {
+                CorrelationData.Confirm confirm = correlation.getFuture()
+                        .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (!confirm.isAck() || correlation.getReturnedMessage() != null) {
+                    throw new IllegalStateException("重新投递创建订单消息未被broker接收：" + confirm.getReason());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待重新投递确认时线程被中断", e);
+            } catch (ExecutionException | TimeoutException e) {
+                throw new IllegalStateException("重新投递创建订单消息未确认", e);
+            }
+        }
+        log.warn("创建订单失败，重新投递 {} 条，转入死信队列 {} 条", msgs.size() - dead, dead);
+    }
+
+    /**
+     * 创建一批订单并写入创建结果，整批在一个事务中创建，失败时逐条处理
+     * 重复的订单(同一订单id)按已创建处理，可以安全地重试
+     * @param batch 订单
+     * @return 处理失败的订单id，这些订单没有写入结果，需要重试
+     */
+    public Set<Long> saveOrders(List<VoucherOrder> batch) {
+        // 同一用户同一优惠券只保留一条，其余的按重复下单处理
+        Map<String, VoucherOrder> orders = new LinkedHashMap<>();
+        List<VoucherOrder> duplicates = new ArrayList<>();
+        for (VoucherOrder order : batch) {
+            VoucherOrder kept = orders.putIfAbsent(order.getUserId() + ":" + order.getVoucherId(), order);
+            if (kept != null && !kept.getId().equals(order.getId())) {
+                duplicates.add(order);
+            }
+        }
+        List<OrderResultDTO> results = new ArrayList<>(batch.size());
+        duplicates.forEach(order -> results.add(result(order, OrderResultDTO.FAILED_DUPLICATE)));
+        Set<Long> failed = new HashSet<>();
+        CreateOrderListener proxy = (CreateOrderListener) AopContext.currentProxy();
+        try {
+            proxy.createOrders(new ArrayList<>(orders.values()));
+            orders.values().forEach(order -> results.add(result(order, OrderResultDTO.CREATED)));
+            log.info("批量创建订单成功，订单 {} 条", orders.size());
+        } catch (Exception e) {
+            // 整批已回滚(有重复订单或库存不足)，逐条处理，每条一个事务
+            log.warn("批量创建订单失败，逐条处理 {} 条：{}", orders.size(), e.getMessage());
+            for (VoucherOrder order : orders.values()) {
+                try {
+                    results.add(result(order, proxy.createOrder(order)));
+                } catch (Exception ex) {
+                    failed.add(order.getId());
+                    log.error("用户 {} 创建订单 {} 失败", order.getUserId(), order.getId(), ex);
+                }
+            }
+        }
+        orderResultStore.save(results);
+        return failed;
+    }
+
+    /**
+     * 批量创建订单，一人一单
+     * 一条INSERT插入所有订单，再按优惠券聚合扣减库存；
+     * 任一订单违反唯一索引(重复下单)或任一优惠券库存不足时抛出异常，整批回滚
+     * @param orders 订单，已按用户和优惠券去重
+     */
+    @Transactional
+    public void createOrders(List<VoucherOrder> orders) {
+        // 1. 批量保存订单，先插入订单，重复下单时不会锁住库存行
+        voucherOrderMapper.insertBatch(orders);
+
+        // 2. 按优惠券聚合扣减库存
+        Map<Long, Long> counts = orders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        counts.forEach((voucherId, count) -> {
+            boolean update = seckillVoucherService.update()
+                    .setSql("stock = stock - " + count)
+                    .eq("voucher_id", voucherId)
+                    .ge("stock", count)
+                    .update();
+            if (!update) {
+                throw new IllegalStateException("优惠券 " + voucherId + " 库存不足 " + count);
+            }
+        });
     }
 
     /**
      * 创建订单, 一人一单
+     * 先插入订单，由(user_id, voucher_id)唯一索引拒绝重复下单，再扣减库存，库存不足时回滚订单
      * @param voucherOrder 订单对象
+     * @return 创建结果 {@link OrderResultDTO#CREATED}、{@link OrderResultDTO#FAILED_DUPLICATE} 或 {@link OrderResultDTO#FAILED_STOCK}
      */
     @Transactional
-    public void createOrder(VoucherOrder voucherOrder) {
-        // 一人一单，获取用户id
-        Integer count = voucherOrderService.query()
-                .eq("user_id", voucherOrder.getUserId())
-                .eq("voucher_id", voucherOrder.getVoucherId())
-                .count();
-        if (count > 0) {
+    public String createOrder(VoucherOrder voucherOrder) {
+        // 1. 保存订单，一人一单
+        try {
+            voucherOrderService.save(voucherOrder);
+        } catch (DuplicateKeyException e) {
+            // 同一订单重复投递(主键冲突)时订单已经创建过
+            if (voucherOrderService.getById(voucherOrder.getId()) != null) {
+                return OrderResultDTO.CREATED;
+            }
             log.error("用户 {} 创建订单失败，该用户已经购买过该优惠券", voucherOrder.getUserId());
-            return;
+            return OrderResultDTO.FAILED_DUPLICATE;
         }
 
-        // 4. 扣减库存
+        // 2. 扣减库存
         boolean update = seckillVoucherService.update()
                 .setSql("stock = stock - 1")
                 .eq("voucher_id", voucherOrder.getVoucherId())
@@ -63,9 +268,17 @@ public class CreateOrderListener {
                 .update();
         if (!update) {
             log.error("用户 {} 创建订单失败，库存不足", voucherOrder.getUserId());
-            return;
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return OrderResultDTO.FAILED_STOCK;
         }
-        // 5. 保存订单
-        voucherOrderService.save(voucherOrder);
+        return OrderResultDTO.CREATED;
+    }
+
+    private static OrderResultDTO result(VoucherOrder order, String status) {
+        return new OrderResultDTO()
+                .setOrderId(order.getId())
+                .setUserId(order.getUserId())
+                .setVoucherId(order.getVoucherId())
+                .setStatus(status);
     }
 }
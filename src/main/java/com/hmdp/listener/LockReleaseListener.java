@@ -0,0 +1,25 @@
+package com.hmdp.listener;
+
+import com.hmdp.utils.SimpleRedisLock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 分布式锁释放 监听器
+ * 消息为锁的key，唤醒本节点等待该锁的线程
+ * @author meidaia
+ */
+@Component
+public class LockReleaseListener implements MessageListener {
+    @Autowired
+    private SimpleRedisLock simpleRedisLock;
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        simpleRedisLock.onRelease(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+}
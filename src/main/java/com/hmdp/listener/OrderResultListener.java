@@ -0,0 +1,25 @@
+package com.hmdp.listener;
+
+import com.hmdp.utils.OrderResultStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 订单创建结果 监听器
+ * 消息为结果的json，唤醒本节点等待该订单结果的请求
+ * @author meidaia
+ */
+@Component
+public class OrderResultListener implements MessageListener {
+    @Autowired
+    private OrderResultStore orderResultStore;
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        orderResultStore.onResult(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+}
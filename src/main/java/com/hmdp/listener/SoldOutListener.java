@@ -0,0 +1,33 @@
+package com.hmdp.listener;
+
+import com.hmdp.utils.SoldOutRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 秒杀券售罄 监听器
+ * 消息格式为 优惠券id:1(售罄) 或 优惠券id:0(恢复)
+ * @author meidaia
+ */
+@Slf4j
+@Component
+public class SoldOutListener implements MessageListener {
+    @Autowired
+    private SoldOutRegistry soldOutRegistry;
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.lastIndexOf(':');
+        if (index <= 0) {
+            log.error("售罄消息格式错误：{}", body);
+            return;
+        }
+        soldOutRegistry.setLocal(Long.valueOf(body.substring(0, index)), "1".equals(body.substring(index + 1)));
+    }
+}
@@ -20,6 +20,13 @@ public interface IShopService extends IService<Shop> {
      */
     Result getShopInfoById(Long id);
 
+    /**
+     * 店铺缓存预热
+     *
+     * @return 预热的店铺数量
+     */
+    long warmUpCache();
+
     /**
      * 更新商铺信息, 同时删除缓存
      *
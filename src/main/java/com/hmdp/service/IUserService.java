@@ -2,6 +2,7 @@ package com.hmdp.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.User;
 
 /**
@@ -22,7 +23,19 @@ public interface IUserService extends IService<User> {
     /**
      * 登录功能
      * @param loginForm 登录参数
-     * @return token
+     * @return redis会话返回token，签名凭证返回访问凭证和刷新凭证
      */
-    String login(LoginFormDTO loginForm);
+    Result login(LoginFormDTO loginForm);
+
+    /**
+     * 用刷新凭证换取新的签名凭证
+     * @param refreshToken 刷新凭证
+     */
+    Result refresh(String refreshToken);
+
+    /**
+     * 登出功能
+     * @param token 登录凭证
+     */
+    void logout(String token);
 }
@@ -20,5 +20,13 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
      */
     Result seckillVoucher(Long voucherId);
 
+    /**
+     * 秒杀优惠券，指定用户
+     * @param voucherId 优惠券id
+     * @param userId 用户id
+     * @return 订单id
+     */
+    Result seckillVoucher(Long voucherId, Long userId);
+
     Result createOrder(Long voucherId);
 }
@@ -1,26 +1,28 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.thread.ThreadUtil;
-import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.RandomUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.dto.Result;
-import com.hmdp.entity.RedisData;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.IdBloomFilter;
 import com.hmdp.utils.RedisClient;
+import com.hmdp.utils.SimpleRedisLock;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -40,6 +42,10 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     private StringRedisTemplate redisTemplate;
     @Autowired
     private RedisClient redisClient;
+    @Autowired
+    private IdBloomFilter idBloomFilter;
+    @Autowired
+    private SimpleRedisLock simpleRedisLock;
 
     @Override
     public Result getShopInfoById(Long id) {
@@ -47,10 +53,13 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null) {
             return Result.fail("店铺id不能为空");
         }
+        // 布隆过滤器判断店铺一定不存在，不再访问redis和数据库
+        if (!idBloomFilter.mightContain(IdBloomFilter.SHOP, id)) {
+            return Result.fail("店铺不存在");
+        }
 
 //        Shop shop = queryWithPassThrough(id);
 //        Shop shop = queryWithMutex(id);
-//        Shop shop = queryWithLogicalExpire(id);
 
 /*        Shop shop = redisClient.queryWithPassThrough(
                 CACHE_SHOP_KEY + id,
@@ -61,7 +70,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
                 TimeUnit.MINUTES
         );*/
 
-        Shop shop = redisClient.queryWithMutex(
+/*        Shop shop = redisClient.queryWithMutex(
                 CACHE_SHOP_KEY + id,
                 LOCK_SHOP_KEY + id,
                 Shop.class,
@@ -69,9 +78,10 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
                 this::getById,
                 CACHE_SHOP_TTL + RandomUtil.randomLong(1, 5),
                 TimeUnit.MINUTES
-                );
+                );*/
 
-/*        Shop shop = redisClient.queryWithLogicalExpire(
+        // 逻辑过期，缓存由启动预热写入，未预热的店铺首次访问时加载
+        Shop shop = redisClient.queryWithLogicalExpire(
                 CACHE_SHOP_KEY + id,
                 LOCK_SHOP_KEY + id,
                 Shop.class,
@@ -79,7 +89,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
                 this::getById,
                 CACHE_SHOP_TTL + RandomUtil.randomLong(1, 5),
                 TimeUnit.MINUTES
-        );*/
+        );
         if (shop == null) {
             return Result.fail("店铺不存在");
         }
@@ -126,164 +136,74 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      * @param id 商铺id
      */
     public Shop queryWithMutex(Long id) {
-        String key = CACHE_SHOP_KEY + id;
-
-        Shop byId = null;
-        boolean isLock = false;
-        try {
-            while (true) {
-                // 1. 查看缓存中是否有商铺信息
-                String s = redisTemplate.opsForValue().get(key);
-                // 2.  缓存中有，返回
-                if (s != null) {
-                    // 缓存中为空，返回空
-                    if (StrUtil.isBlank(s)) {
-                        return null;
-                    }
-                    // 缓存中有，返回
-                    return JSONUtil.toBean(s, Shop.class);
-                }
-                // 3. 缓存中没有，尝试获取锁，然后查询数据库
-                isLock = tryLock(LOCK_SHOP_KEY + id);
-                if (isLock) {
-                    // 获取锁成功，退出循环
-                    break;
-                }
-                // 获取锁失败，休眠一段时间，重新查询获取
-                ThreadUtil.sleep(RandomUtil.randomLong(30, 50));
-            }
-            // 获取到了锁，查询数据库写入缓存
-            byId = getById(id);
-            // 4. 数据库中没有，将空值写入缓存(有效时间2Min)，返回空
-            if (byId == null) {
-                // 将空值写入缓存
-                redisTemplate.opsForValue()
-                        .set(key, "", CACHE_NULL_TTL + RandomUtil.randomLong(1, 5), TimeUnit.MINUTES);
-                return null;
-            }
-            // 5. 数据库中有，写入缓存
-            redisTemplate.opsForValue()
-                    .set(key, JSONUtil.toJsonStr(byId), CACHE_SHOP_TTL + RandomUtil.randomLong(1, 5), TimeUnit.MINUTES);
-        } finally {
-            // 7. 如果获取到了锁，释放锁
-            if (isLock) {
-                unLock(LOCK_SHOP_KEY + id);
-            }
-        }
-        // 6. 返回
-        return byId;
-    }
-
-    /**
-     * 尝试获取锁
-     *
-     * @param key 锁的key
-     * @return 获取锁成功返回true，获取锁失败返回false
-     */
-    private boolean tryLock(String key) {
-        Boolean flag = redisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
-    }
-
-    /**
-     * 释放锁
-     *
-     * @param key 锁的key
-     */
-    private void unLock(String key) {
-        redisTemplate.delete(key);
+        // 并发未命中的合并和互斥锁等待统一由RedisClient处理
+        return redisClient.queryWithMutex(
+                CACHE_SHOP_KEY + id,
+                LOCK_SHOP_KEY + id,
+                Shop.class,
+                id,
+                this::getById,
+                CACHE_SHOP_TTL + RandomUtil.randomLong(1, 5),
+                TimeUnit.MINUTES
+        );
     }
 
-    // 线程池
-//    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(4);
-    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
-            // 核心线程数
-            4,
-            // 最大线程数
-            8,
-            // 空闲线程存活时间
-            60L,
-            TimeUnit.SECONDS,
-            // 队列长度，防止任务无限积压
-            new ArrayBlockingQueue<>(100),
-            // 拒绝策略：任务满直接丢弃
-            new ThreadPoolExecutor.DiscardPolicy()
-    );
-
     /**
-     * 查询数据，使用逻辑过期解决缓存击穿
+     * 缓存预热，按id顺序分批查询店铺，多线程编码后通过管道写入逻辑过期缓存
+     * 查询下一批数据与写入上一批数据同时进行
      *
-     * @param id 商铺id
-     * @return 商铺信息
+     * @return 预热的店铺数量
      */
-    private Shop queryWithLogicalExpire(Long id) {
-        String key = CACHE_SHOP_KEY + id;
-        // 1. 查看缓存中是否有商铺信息
-        String s = redisTemplate.opsForValue().get(key);
-        // 2. 缓存中没有，直接返回空
-        if (StrUtil.isBlank(s)) {
-            return null;
-        }
-        // 3. 缓存中有，查看是否过期
-        RedisData redisData = JSONUtil.toBean(s, RedisData.class);
-        if (LocalDateTime.now().isAfter(redisData.getExpireTime())) {
-            // 4. 过期，创建新线程，更新数据库，
-            EXECUTOR.submit(() -> refreshCacheWithLogicalExpire(id));
+    @Override
+    public long warmUpCache() {
+        long begin = System.currentTimeMillis();
+        long total = 0;
+        long lastId = 0;
+        CompletableFuture<Void> writing = CompletableFuture.completedFuture(null);
+        while (true) {
+            // 1. 按id顺序分批查询
+            List<Shop> shops = getBaseMapper().selectList(new QueryWrapper<Shop>()
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + WARM_UP_BATCH_SIZE));
+            if (shops.isEmpty()) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+            // 2. 等待上一批写入完成，再异步写入这一批
+            writing.join();
+            writing = CompletableFuture.runAsync(() -> writeWarmUpBatch(shops));
+            total += shops.size();
+            long cost = Math.max(System.currentTimeMillis() - begin, 1);
+            log.info("店铺缓存预热中，已完成 {} 条，{} 条/秒", total, total * 1000 / cost);
         }
-        // 5. 返回旧数据
-        return JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
+        writing.join();
+        long cost = Math.max(System.currentTimeMillis() - begin, 1);
+        log.info("店铺缓存预热完成，共 {} 条，耗时 {} ms，{} 条/秒", total, cost, total * 1000 / cost);
+        return total;
     }
 
     /**
-     * 更新商铺信息，使用逻辑过期解决缓存击穿
+     * 写入一批预热数据，过期时间逐条随机，重建耗时使用估计值
+     * 预热不持有店铺锁，查询与写入之间 update() 可能已经更新数据库并删除了缓存；
+     * 写入后重新查询这一批店铺，期间被修改或删除的店铺删除缓存，旧数据不会留在缓存中
      *
-     * @param id 商铺id
+     * @param shops 按id顺序查询的一批店铺
      */
-    private void refreshCacheWithLogicalExpire(Long id) {
-        String key = CACHE_SHOP_KEY + id;
-        boolean isLock = false;
-
-        try {
-            // 1. 获取锁
-            isLock = tryLock(LOCK_SHOP_KEY + id);
-            // 2. 获取锁失败，返回
-            if (!isLock) {
-                return;
-            }
-            // 3. 查询redis中商铺信息是否过期
-            String s = redisTemplate.opsForValue().get(key);
-            RedisData bean = JSONUtil.toBean(s, RedisData.class);
-            if (LocalDateTime.now().isBefore(bean.getExpireTime())) {
-                // 4. 未过期，不用更新缓存，退出方法
-                return;
-            }
-
-            // 获取锁成功，更新数据库
-            // 5. 查询数据库
-            Shop byId = null;
-            try {
-                byId = getById(id);
-            } catch (Exception e) {
-                log.error("缓存重建失败 id={}", id, e);
-            }
-            // 6. 为空，表示数据库中不存在，直接删除缓存
-            if (byId == null) {
-                redisTemplate.delete(key);
-                return;
-            }
-            // 7. 存在，写入缓存
-            redisTemplate.opsForValue()
-                    .set(key,
-                            JSONUtil.toJsonStr(new RedisData<>(LocalDateTime.now().plusSeconds(TimeUnit.MINUTES.toSeconds(CACHE_SHOP_TTL)), byId)));
-        } finally {
-            // 8. 释放锁
-            if (isLock) {
-                unLock(LOCK_SHOP_KEY + id);
+    private void writeWarmUpBatch(List<Shop> shops) {
+        Map<String, Shop> batch = shops.stream()
+                .collect(Collectors.toMap(shop -> CACHE_SHOP_KEY + shop.getId(), Function.identity()));
+        redisClient.setBatchWithLogicExpire(batch, WARM_UP_REBUILD_DELTA,
+                CACHE_SHOP_TTL + 1, CACHE_SHOP_TTL + 5, TimeUnit.MINUTES);
+        Map<Long, Shop> current = listByIds(shops.stream().map(Shop::getId).collect(Collectors.toList())).stream()
+                .collect(Collectors.toMap(Shop::getId, Function.identity()));
+        for (Shop shop : shops) {
+            if (!shop.equals(current.get(shop.getId()))) {
+                redisClient.delete(CACHE_SHOP_KEY + shop.getId());
             }
         }
     }
 
-
     @Override
     public Result update(Shop shop) {
         // 0. 判空
@@ -291,11 +211,26 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return Result.fail("店铺id不能为空");
         }
 
-        // 1. 更新数据库
-        updateById(shop);
+        // 持有与缓存重建相同的锁(LOCK_SHOP_KEY + id)：未命中时的加载和过期后的刷新都在这把锁内查库并写缓存，
+        // 等待进行中的加载或刷新完成后再更新和删除，避免它们读到旧数据后在删除缓存之后写回
+        String lockName = "shop:" + shop.getId();
+        try {
+            if (!simpleRedisLock.lock(lockName, LOCK_SHOP_TTL, TimeUnit.SECONDS)) {
+                return Result.fail("店铺正在更新，请稍后再试");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.fail("店铺正在更新，请稍后再试");
+        }
+        try {
+            // 1. 更新数据库
+            updateById(shop);
 
-        // 2. 删除缓存
-        redisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+            // 2. 删除缓存，并通知所有节点删除本地缓存
+            redisClient.delete(CACHE_SHOP_KEY + shop.getId());
+        } finally {
+            simpleRedisLock.unLock(lockName);
+        }
 
         return Result.ok();
     }
@@ -7,6 +7,8 @@ import cn.hutool.core.util.RandomUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.TokenDTO;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.exception.ServiceException;
@@ -14,13 +16,19 @@ import com.hmdp.exception.UserUnsignedException;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IMailService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.RedisClient;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SignedTokenService;
 import lombok.SneakyThrows;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.sql.rowset.serial.SerialException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -42,6 +50,15 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     private IMailService mailService;
     @Autowired
     private StringRedisTemplate redisTemplate;
+    @Autowired
+    private LoginSessionCache loginSessionCache;
+    @Autowired
+    private SignedTokenService signedTokenService;
+    @Autowired
+    private RedisClient redisClient;
+    // 登录凭证 redis/signed
+    @Value("${hmdp.session.mode:redis}")
+    private String sessionMode;
     private boolean save;
 
     /**
@@ -63,11 +80,11 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
      * 登录功能
      *
      * @param loginForm 登录参数
-     * @return token
+     * @return redis会话返回token，签名凭证返回访问凭证和刷新凭证
      */
     @SneakyThrows
     @Override
-    public String login(LoginFormDTO loginForm) {
+    public Result login(LoginFormDTO loginForm) {
         // 0. 查看验证码是否正确
         String cacheCode = redisTemplate.opsForValue().get(LOGIN_CODE_KEY + loginForm.getPhone());
         if (RegexUtils.isCodeInvalid(loginForm.getCode()) || !ObjectUtil.equals(cacheCode, loginForm.getCode())) {
@@ -80,6 +97,10 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             // 1.2 注册用户
             user = saveUser(loginForm);
         }
+        // 2. 签名凭证，用户信息写在凭证中，不保存会话
+        if ("signed".equals(sessionMode)) {
+            return Result.ok(signedTokenService.issue(BeanUtil.copyProperties(user, UserDTO.class)));
+        }
         // 2. 将用户信息存到Redis中
         //  2.1 生成 token
         String token = RandomUtil.randomString(32);
@@ -95,7 +116,64 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         //  2.3.1 设置有效期为30分钟
         redisTemplate.expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
         // 3. 返回token
-        return token;
+        return Result.ok(token);
+    }
+
+    /**
+     * 用刷新凭证换取新的签名凭证，刷新凭证只能使用一次
+     *
+     * @param refreshToken 刷新凭证
+     */
+    @Override
+    public Result refresh(String refreshToken) {
+        TokenDTO tokenDTO = signedTokenService.refresh(refreshToken);
+        if (tokenDTO == null) {
+            return Result.fail("登录已过期，请重新登录");
+        }
+        return Result.ok(tokenDTO);
+    }
+
+    /**
+     * 登出，签名凭证的会话加入登出列表并删除刷新凭证；
+     * redis会话删除会话并通知所有节点删除本地缓存的会话
+     *
+     * @param token 登录凭证
+     */
+    @Override
+    public void logout(String token) {
+        if (token.indexOf('.') > 0) {
+            signedTokenService.revoke(token);
+            return;
+        }
+        loginSessionCache.invalidate(token);
+    }
+
+    /**
+     * 更新用户，删除缓存的用户信息(昵称、头像)，并通知所有节点删除本地缓存
+     *
+     * @param entity 用户
+     */
+    @Override
+    public boolean updateById(User entity) {
+        boolean updated = super.updateById(entity);
+        if (updated) {
+            redisClient.delete(CACHE_USER_KEY + entity.getId());
+        }
+        return updated;
+    }
+
+    /**
+     * 批量更新用户，删除缓存的用户信息
+     *
+     * @param entityList 用户列表
+     * @param batchSize 每批数量
+     */
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public boolean updateBatchById(Collection<User> entityList, int batchSize) {
+        boolean updated = super.updateBatchById(entityList, batchSize);
+        entityList.forEach(user -> redisClient.delete(CACHE_USER_KEY + user.getId()));
+        return updated;
     }
 
     /**
@@ -1,35 +1,26 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.json.JSONUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.IdBloomFilter;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.OrderIntake;
 import com.hmdp.utils.RedisClient;
+import com.hmdp.utils.SeckillStock;
 import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SoldOutRegistry;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.springframework.amqp.AmqpException;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
-import org.springframework.scripting.support.ResourceScriptSource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import javax.annotation.PostConstruct;
-import java.util.Collections;
-
-import static com.hmdp.utils.MQConstants.ORDER_CREATE_EXCHANGE;
-import static com.hmdp.utils.MQConstants.ORDER_CREATE_KEY;
-
 /**
  * <p>
  * 服务实现类
@@ -46,26 +37,18 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Autowired
     private RedisClient redisClient;
     @Autowired
-    private StringRedisTemplate redisTemplate;
-    @Autowired
     private RedissonClient redissonClient;
     @Autowired
-    private RabbitTemplate rabbitTemplate;
-
-    SimpleRedisLock simpleRedisLock;
-
-    // 加载秒杀优惠券脚本
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setResultType(Long.class);
-        SECKILL_SCRIPT.setScriptSource(new ResourceScriptSource(new ClassPathResource("seckill.lua")));
-    }
+    private OrderIntake orderIntake;
+    @Autowired
+    private IdBloomFilter idBloomFilter;
+    @Autowired
+    private SoldOutRegistry soldOutRegistry;
+    @Autowired
+    private SeckillStock seckillStock;
 
-    @PostConstruct
-    public void init() {
-        simpleRedisLock = new SimpleRedisLock(redisTemplate);
-    }
+    @Autowired
+    private SimpleRedisLock simpleRedisLock;
 
     /**
      * 秒杀优惠券
@@ -75,27 +58,49 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucher(Long voucherId) {
-        // 通过redis查询用户是否可以购买
-        Long execute = redisTemplate.execute(SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(),
-                UserHolder.getUser().getId().toString()
-        );
-        if (execute != 0) {
-            return execute == 1 ? Result.fail("库存不足") : Result.fail("请勿重复下单");
+        return seckillVoucher(voucherId, UserHolder.getUser().getId());
+    }
+
+    /**
+     * 秒杀优惠券，不依赖当前线程的登录用户，排队的请求由后台线程调用
+     *
+     * @param voucherId 优惠券id
+     * @param userId 用户id
+     * @return 订单id
+     */
+    @Override
+    public Result seckillVoucher(Long voucherId, Long userId) {
+        // 布隆过滤器判断优惠券一定不存在，直接返回
+        if (!idBloomFilter.mightContain(IdBloomFilter.VOUCHER, voucherId)) {
+            return Result.fail("优惠券不存在");
+        }
+        // 本节点已知售罄，直接返回，不再访问redis
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        // 通过redis查询用户是否可以购买，库存分片时在所属分片扣减
+        long execute = seckillStock.deduct(voucherId, userId);
+        if (execute != SeckillStock.SUCCESS) {
+            if (execute == SeckillStock.SOLD_OUT) {
+                // 库存不足，标记售罄并通知所有节点
+                soldOutRegistry.markSoldOut(voucherId);
+                return Result.fail("库存不足");
+            }
+            if (execute == SeckillStock.NOT_STARTED) {
+                return Result.fail("秒杀尚未开始");
+            }
+            if (execute == SeckillStock.ENDED) {
+                return Result.fail("秒杀已经结束");
+            }
+            return Result.fail("请勿重复下单");
         }
 
         long orderId = redisClient.getUniqueId("voucherOrder");
-        // 发送消息到MQ
-        try {
-            rabbitTemplate.convertAndSend(
-                    ORDER_CREATE_EXCHANGE,
-                    ORDER_CREATE_KEY,
-                    JSONUtil.toJsonStr(new VoucherOrder().setVoucherId(voucherId).setId(orderId).setUserId(UserHolder.getUser().getId()))
-            );
-        } catch (AmqpException e) {
-            log.error("创建订单失败：{}", e.getMessage());
-            throw new RuntimeException(e);
+        // 交给后台创建订单(MQ或进程内环形队列)，不等待订单写入数据库
+        if (!orderIntake.publish(new VoucherOrder().setVoucherId(voucherId).setId(orderId).setUserId(userId))) {
+            // 订单没有交出，回滚库存和已购记录，用户可以重试
+            seckillStock.release(voucherId, userId);
+            return Result.fail("系统繁忙，请稍后再试");
         }
 
         return Result.ok(orderId);
@@ -7,16 +7,17 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.SoldOutRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.util.Collections;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
-
 /**
  * <p>
  *  服务实现类
@@ -31,10 +32,18 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     @Autowired
-    private StringRedisTemplate redisTemplate;
+    private IdBloomFilter idBloomFilter;
+    @Autowired
+    private SoldOutRegistry soldOutRegistry;
+    @Autowired
+    private SeckillStock seckillStock;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
+        // 店铺一定不存在，直接返回空列表
+        if (!idBloomFilter.mightContain(IdBloomFilter.SHOP, shopId)) {
+            return Result.ok(Collections.emptyList());
+        }
         // 查询优惠券信息
         List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
         // 返回结果
@@ -54,7 +63,10 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
 
-        // 秒杀券的库存保存到Redis中
-        redisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 秒杀券的库存和秒杀时间保存到Redis中，热门券可拆分为多个分片
+        seckillStock.init(voucher.getId(), voucher.getStock(), voucher.getStockShards(),
+                voucher.getBeginTime(), voucher.getEndTime());
+        // 库存已写入，清除可能残留的售罄标记
+        soldOutRegistry.clear(voucher.getId());
     }
 }
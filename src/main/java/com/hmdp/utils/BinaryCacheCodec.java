@@ -0,0 +1,309 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.RedisData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 紧凑二进制格式缓存编解码
+ * 格式：魔数(1字节) + 标记(1字节) + 数据，数据超过阈值时使用deflate压缩
+ * 逻辑过期数据：过期时间 + [重建耗时] + 实体
+ * 实体按字段名排序后依次写入 类型标记 + 值，不写字段名；字段结构变化时通过结构哈希识别，按未命中处理
+ * @author meidaia
+ */
+public class BinaryCacheCodec implements CacheCodec {
+    // 魔数，非ASCII字符，不会与JSON格式冲突
+    public static final byte MAGIC = (byte) 0xB1;
+
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int FLAG_LOGICAL = 1 << 1;
+    private static final int FLAG_DELTA = 1 << 2;
+
+    // 类型标记
+    private static final byte NULL = 0;
+    private static final byte LONG = 1;
+    private static final byte INT = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte STRING = 4;
+    private static final byte DATE_TIME = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte BEAN = 7;
+    private static final byte JSON = 8;
+
+    // 类 -> 字段结构，反射只做一次
+    private static final Map<Class<?>, Schema> SCHEMAS = new ConcurrentHashMap<>();
+
+    // 压缩阈值，编码后超过该字节数时压缩
+    private final int compressThreshold;
+
+    /**
+     * 不压缩
+     */
+    public BinaryCacheCodec() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param compressThreshold 压缩阈值，单位字节
+     */
+    public BinaryCacheCodec(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        return bytes.length > 1 && bytes[0] == MAGIC;
+    }
+
+    @Override
+    public byte[] encode(Object data) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        try {
+            writeValue(new DataOutputStream(body), data);
+        } catch (IOException | IllegalAccessException e) {
+            throw new IllegalStateException("缓存编码失败", e);
+        }
+        return pack(body.toByteArray(), 0);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        try (DataInputStream in = unpack(bytes)) {
+            if ((bytes[1] & FLAG_LOGICAL) != 0) {
+                throw new IllegalStateException("逻辑过期数据不能直接解码");
+            }
+            return type.cast(readValue(in, type));
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new IllegalStateException("缓存解码失败", e);
+        }
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData<?> redisData) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        try {
+            DataOutputStream out = new DataOutputStream(body);
+            writeValue(out, redisData.getExpireTime());
+            if (redisData.getDelta() != null) {
+                out.writeLong(redisData.getDelta());
+            }
+            writeValue(out, redisData.getData());
+        } catch (IOException | IllegalAccessException e) {
+            throw new IllegalStateException("缓存编码失败", e);
+        }
+        return pack(body.toByteArray(), redisData.getDelta() == null ? FLAG_LOGICAL : FLAG_LOGICAL | FLAG_DELTA);
+    }
+
+    @Override
+    public <T> RedisData<T> decodeLogical(byte[] bytes, Class<T> type) {
+        try (DataInputStream in = unpack(bytes)) {
+            if ((bytes[1] & FLAG_LOGICAL) == 0) {
+                throw new IllegalStateException("不是逻辑过期数据");
+            }
+            LocalDateTime expireTime = (LocalDateTime) readValue(in, LocalDateTime.class);
+            Long delta = (bytes[1] & FLAG_DELTA) != 0 ? in.readLong() : null;
+            T data = type.cast(readValue(in, type));
+            return new RedisData<>(expireTime, data, delta);
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new IllegalStateException("缓存解码失败", e);
+        }
+    }
+
+    /**
+     * 拼接数据头，超过阈值时压缩
+     */
+    private byte[] pack(byte[] body, int flags) {
+        if (body.length > compressThreshold) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 2);
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try (DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater)) {
+                out.write(body);
+            } catch (IOException e) {
+                throw new IllegalStateException("缓存压缩失败", e);
+            } finally {
+                deflater.end();
+            }
+            body = compressed.toByteArray();
+            flags |= FLAG_COMPRESSED;
+        }
+        byte[] bytes = new byte[body.length + 2];
+        bytes[0] = MAGIC;
+        bytes[1] = (byte) flags;
+        System.arraycopy(body, 0, bytes, 2, body.length);
+        return bytes;
+    }
+
+    /**
+     * 去掉数据头，压缩过的数据解压
+     */
+    private DataInputStream unpack(byte[] bytes) {
+        InputStream in = new ByteArrayInputStream(bytes, 2, bytes.length - 2);
+        if ((bytes[1] & FLAG_COMPRESSED) != 0) {
+            in = new InflaterInputStream(in);
+        }
+        return new DataInputStream(in);
+    }
+
+    private void writeValue(DataOutputStream out, Object value) throws IOException, IllegalAccessException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof LocalDateTime) {
+            LocalDateTime time = (LocalDateTime) value;
+            out.writeByte(DATE_TIME);
+            out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(time.getNano());
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else {
+            Schema schema = schemaOf(value.getClass());
+            if (schema == null) {
+                // 集合等其他类型退化为JSON
+                out.writeByte(JSON);
+                writeString(out, JSONUtil.toJsonStr(value));
+                return;
+            }
+            out.writeByte(BEAN);
+            out.writeInt(schema.hash);
+            for (Field field : schema.fields) {
+                writeValue(out, field.get(value));
+            }
+        }
+    }
+
+    private Object readValue(DataInputStream in, Class<?> type) throws IOException, ReflectiveOperationException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case LONG:
+                return in.readLong();
+            case INT:
+                return in.readInt();
+            case DOUBLE:
+                return in.readDouble();
+            case STRING:
+                return readString(in);
+            case DATE_TIME:
+                return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+            case BOOLEAN:
+                return in.readBoolean();
+            case JSON:
+                return JSONUtil.parse(readString(in)).toBean(type);
+            case BEAN:
+                Schema schema = schemaOf(type);
+                if (schema == null || schema.hash != in.readInt()) {
+                    throw new IllegalStateException("缓存数据结构与 " + type.getName() + " 不一致");
+                }
+                Object bean = schema.constructor.newInstance();
+                for (Field field : schema.fields) {
+                    Object value = readValue(in, field.getType());
+                    // 基本类型字段不能设置null
+                    if (value != null || !field.getType().isPrimitive()) {
+                        field.set(bean, value);
+                    }
+                }
+                return bean;
+            default:
+                throw new IllegalStateException("未知的类型标记 " + tag);
+        }
+    }
+
+    private void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 获取实体的字段结构，非实体类型返回null
+     */
+    private static Schema schemaOf(Class<?> type) {
+        if (type.isArray() || type.isInterface() || type.isPrimitive() || type.getName().startsWith("java.")) {
+            return null;
+        }
+        return SCHEMAS.computeIfAbsent(type, Schema::create);
+    }
+
+    /**
+     * 实体的字段结构
+     */
+    private static class Schema {
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+        private final int hash;
+
+        private Schema(Constructor<?> constructor, Field[] fields, int hash) {
+            this.constructor = constructor;
+            this.fields = fields;
+            this.hash = hash;
+        }
+
+        private static Schema create(Class<?> type) {
+            Constructor<?> constructor;
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                // 没有无参构造方法，按JSON处理
+                return null;
+            }
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            // 按字段名排序，保证不同节点的顺序一致
+            fields.sort(Comparator.comparing(Field::getName));
+            StringBuilder signature = new StringBuilder();
+            for (Field field : fields) {
+                signature.append(field.getName()).append(':').append(field.getType().getName()).append(';');
+            }
+            return new Schema(constructor, fields.toArray(new Field[0]), signature.toString().hashCode());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 基于long id的本地布隆过滤器，线程安全
+ * @author meidaia
+ */
+public class BloomFilter {
+    // 位数组
+    private final AtomicLongArray bits;
+    // 位数
+    private final long bitSize;
+    // 哈希函数个数
+    private final int hashFunctions;
+    // 已插入的元素个数
+    private final AtomicLong insertions = new AtomicLong();
+
+    /**
+     * 创建布隆过滤器
+     * @param expectedInsertions 预计插入的元素个数
+     * @param fpp 期望误判率
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(expectedInsertions, 1);
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        // 按64位对齐
+        this.bits = new AtomicLongArray((int) ((m + 63) >>> 6));
+        this.bitSize = (long) bits.length() << 6;
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+    }
+
+    /**
+     * 添加元素
+     * @param id 元素
+     */
+    public void add(long id) {
+        long hash = mix(id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        boolean changed = false;
+        for (int i = 1; i <= hashFunctions; i++) {
+            changed |= setBit(index(h1 + i * h2));
+        }
+        if (changed) {
+            insertions.incrementAndGet();
+        }
+    }
+
+    /**
+     * 判断元素是否可能存在
+     * @param id 元素
+     * @return false表示一定不存在，true表示可能存在
+     */
+    public boolean mightContain(long id) {
+        long hash = mix(id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashFunctions; i++) {
+            long index = index(h1 + i * h2);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 当前插入元素个数下的误判率 (1 - e^(-kn/m))^k
+     */
+    public double expectedFpp() {
+        return Math.pow(1 - Math.exp(-(double) hashFunctions * insertions.get() / bitSize), hashFunctions);
+    }
+
+    public long getInsertions() {
+        return insertions.get();
+    }
+
+    public long getBitSize() {
+        return bitSize;
+    }
+
+    public int getHashFunctions() {
+        return hashFunctions;
+    }
+
+    private long index(int combinedHash) {
+        // 负数取反，保证下标非负
+        return (combinedHash < 0 ? ~combinedHash : combinedHash) % bitSize;
+    }
+
+    private boolean setBit(long index) {
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        while (true) {
+            long old = bits.get(word);
+            if ((old & mask) != 0) {
+                return false;
+            }
+            if (bits.compareAndSet(word, old, old | mask)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * splitmix64 混淆，连续的自增id也能均匀分布
+     */
+    private static long mix(long x) {
+        x += 0x9E3779B97F4A7C15L;
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+}
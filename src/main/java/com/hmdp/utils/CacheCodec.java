@@ -0,0 +1,50 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.RedisData;
+
+/**
+ * 缓存值编解码
+ * RedisClient写入时使用配置的实现，读取时按数据头部识别格式，新旧格式可以同时存在
+ * @author meidaia
+ */
+public interface CacheCodec {
+
+    /**
+     * 是否能解析该数据
+     * @param bytes redis中的原始数据，不为空
+     * @return 能解析返回true
+     */
+    boolean canDecode(byte[] bytes);
+
+    /**
+     * 编码
+     * @param data 缓存的数据
+     * @return 字节数组
+     */
+    byte[] encode(Object data);
+
+    /**
+     * 解码
+     * @param bytes redis中的原始数据
+     * @param type 数据类型
+     * @return 数据
+     * @param <T> 数据类型
+     */
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    /**
+     * 编码逻辑过期数据
+     * @param redisData 逻辑过期数据
+     * @return 字节数组
+     */
+    byte[] encodeLogical(RedisData<?> redisData);
+
+    /**
+     * 解码逻辑过期数据
+     * @param bytes redis中的原始数据
+     * @param type 数据类型
+     * @return 逻辑过期数据
+     * @param <T> 数据类型
+     */
+    <T> RedisData<T> decodeLogical(byte[] bytes, Class<T> type);
+}
@@ -0,0 +1,96 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地缓存数据的副本
+ * 本地缓存中的对象被同一节点的所有请求共享，写入和读取时都复制一份，调用方修改返回值不会影响缓存；
+ * 字段全部为不可变类型(基本类型及包装类、字符串、时间、枚举)的对象按字段浅拷贝，反射结果按类缓存；
+ * 其他对象经过json序列化再反序列化得到深拷贝
+ * @author meidaia
+ */
+public class CacheCopier {
+    // 类 -> 字段结构
+    private static final Map<Class<?>, Shape> SHAPES = new ConcurrentHashMap<>();
+
+    /**
+     * 复制对象
+     * @param value 缓存的数据，不为null
+     * @return 副本，不可变对象直接返回
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T copy(T value) {
+        Class<T> type = (Class<T>) value.getClass();
+        if (isImmutable(type)) {
+            return value;
+        }
+        Shape shape = SHAPES.computeIfAbsent(type, Shape::of);
+        if (shape.constructor == null) {
+            return JSONUtil.toBean(JSONUtil.toJsonStr(value), type);
+        }
+        try {
+            Object copy = shape.constructor.newInstance();
+            for (Field field : shape.fields) {
+                field.set(copy, field.get(value));
+            }
+            return (T) copy;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("复制缓存数据失败 " + type.getName(), e);
+        }
+    }
+
+    private static boolean isImmutable(Class<?> type) {
+        return type.isPrimitive() || type.isEnum() || type == String.class || type == Boolean.class
+                || type == Character.class || type == BigDecimal.class || type == BigInteger.class
+                || (Number.class.isAssignableFrom(type) && type.getName().startsWith("java.lang."))
+                || (TemporalAccessor.class.isAssignableFrom(type) && type.getName().startsWith("java.time."));
+    }
+
+    /**
+     * 类的字段结构，constructor为null表示不能浅拷贝
+     */
+    private static class Shape {
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+
+        private Shape(Constructor<?> constructor, Field[] fields) {
+            this.constructor = constructor;
+            this.fields = fields;
+        }
+
+        static Shape of(Class<?> type) {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers)) {
+                        continue;
+                    }
+                    if (Modifier.isFinal(modifiers) || !isImmutable(field.getType())) {
+                        return new Shape(null, null);
+                    }
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            try {
+                Constructor<?> constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                return new Shape(constructor, fields.toArray(new Field[0]));
+            } catch (NoSuchMethodException e) {
+                return new Shape(null, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存指标，按key前缀统计命中情况和各阶段耗时，注册到Micrometer
+ * 每个前缀的计数器和计时器只创建一次，记录时不再查找注册表
+ * @author meidaia
+ */
+@Component
+public class CacheMetrics {
+    // 访问结果
+    public static final String LOCAL_HIT = "local_hit";
+    public static final String HIT = "hit";
+    public static final String NULL_HIT = "null_hit";
+    public static final String MISS = "miss";
+    private static final String[] RESULTS = {LOCAL_HIT, HIT, NULL_HIT, MISS};
+
+    @Autowired
+    private MeterRegistry registry;
+
+    // key前缀 -> 指标
+    private final Map<String, PrefixMeters> meters = new ConcurrentHashMap<>();
+
+    /**
+     * 获取key前缀，去掉末尾的数字id，如 cache:shop:1 -> cache:shop:，cache:shop:type 不变
+     * @param key 缓存的key
+     * @return key前缀
+     */
+    public static String prefixOf(String key) {
+        int index = key.lastIndexOf(':');
+        if (index < 0 || index == key.length() - 1) {
+            return key;
+        }
+        for (int i = index + 1; i < key.length(); i++) {
+            if (!Character.isDigit(key.charAt(i))) {
+                return key;
+            }
+        }
+        return key.substring(0, index + 1);
+    }
+
+    /**
+     * 记录一次访问结果
+     * @param key 缓存的key
+     * @param result 访问结果
+     */
+    public void access(String key, String result) {
+        PrefixMeters prefixMeters = metersOf(key);
+        Counter counter = prefixMeters.results.get(result);
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    /**
+     * 记录redis查询耗时
+     */
+    public void recordGet(String key, long nanos) {
+        metersOf(key).get.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录查询数据库重建缓存的耗时
+     */
+    public void recordRebuild(String key, long nanos) {
+        metersOf(key).rebuild.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录等待锁的耗时
+     */
+    public void recordLockWait(String key, long nanos) {
+        metersOf(key).lockWait.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录编解码耗时
+     */
+    public void recordSerialization(String key, long nanos) {
+        metersOf(key).serialization.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录一次获取锁失败
+     */
+    public void lockFailed(String key) {
+        metersOf(key).lockFailures.increment();
+    }
+
+    /**
+     * 各前缀的统计汇总
+     * @return key前缀 -> 指标名 -> 值
+     */
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> snapshot = new TreeMap<>();
+        meters.forEach((prefix, prefixMeters) -> {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            double total = 0;
+            double hits = 0;
+            for (String result : RESULTS) {
+                double count = prefixMeters.results.get(result).count();
+                stats.put(result, (long) count);
+                total += count;
+                if (!MISS.equals(result)) {
+                    hits += count;
+                }
+            }
+            stats.put("hitRatio", total == 0 ? 0 : hits / total);
+            stats.put("lockFailures", (long) prefixMeters.lockFailures.count());
+            stats.put("getMeanMs", prefixMeters.get.mean(TimeUnit.MILLISECONDS));
+            stats.put("rebuildMeanMs", prefixMeters.rebuild.mean(TimeUnit.MILLISECONDS));
+            stats.put("rebuildMaxMs", prefixMeters.rebuild.max(TimeUnit.MILLISECONDS));
+            stats.put("lockWaitMeanMs", prefixMeters.lockWait.mean(TimeUnit.MILLISECONDS));
+            stats.put("serializationMeanMs", prefixMeters.serialization.mean(TimeUnit.MILLISECONDS));
+            snapshot.put(prefix, stats);
+        });
+        return snapshot;
+    }
+
+    private PrefixMeters metersOf(String key) {
+        return meters.computeIfAbsent(prefixOf(key), prefix -> new PrefixMeters(registry, prefix));
+    }
+
+    /**
+     * 单个前缀的指标
+     */
+    private static class PrefixMeters {
+        private final Map<String, Counter> results = new LinkedHashMap<>();
+        private final Timer get;
+        private final Timer rebuild;
+        private final Timer lockWait;
+        private final Timer serialization;
+        private final Counter lockFailures;
+
+        PrefixMeters(MeterRegistry registry, String prefix) {
+            for (String result : RESULTS) {
+                results.put(result, Counter.builder("cache.requests")
+                        .description("缓存访问次数")
+                        .tag("prefix", prefix)
+                        .tag("result", result)
+                        .register(registry));
+            }
+            get = timer(registry, "cache.redis.get", "redis查询耗时", prefix);
+            rebuild = timer(registry, "cache.rebuild", "查询数据库重建缓存耗时", prefix);
+            lockWait = timer(registry, "cache.lock.wait", "等待锁耗时", prefix);
+            serialization = timer(registry, "cache.serialization", "编解码耗时", prefix);
+            lockFailures = Counter.builder("cache.lock.failures")
+                    .description("获取锁失败次数")
+                    .tag("prefix", prefix)
+                    .register(registry);
+        }
+
+        private static Timer timer(MeterRegistry registry, String name, String description, String prefix) {
+            return Timer.builder(name)
+                    .description(description)
+                    .tag("prefix", prefix)
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 已消费的消息id
+ * 事务提交后记录消息id，broker重复投递的消息在访问数据库前直接跳过；
+ * 每个消息id单独一个key并各自过期。这里只是快速路径，redis不可用时按未消费处理，由订单表的唯一索引兜底
+ * @author meidaia
+ */
+@Slf4j
+@Component
+public class ConsumedMessageRegistry {
+    private static final byte[] CONSUMED = "1".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    /**
+     * 查询已消费的消息id
+     * @param messageIds 消息id，可以包含null
+     * @return 其中已消费的消息id
+     */
+    public Set<String> filterConsumed(Collection<String> messageIds) {
+        List<String> ids = new ArrayList<>(messageIds.size());
+        List<String> keys = new ArrayList<>(messageIds.size());
+        for (String id : messageIds) {
+            if (StrUtil.isNotBlank(id)) {
+                ids.add(id);
+                keys.add(ORDER_CONSUMED_KEY + id);
+            }
+        }
+        Set<String> consumed = new HashSet<>();
+        if (keys.isEmpty()) {
+            return consumed;
+        }
+        try {
+            List<String> values = redisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; values != null && i < values.size(); i++) {
+                if (values.get(i) != null) {
+                    consumed.add(ids.get(i));
+                }
+            }
+        } catch (Exception e) {
+            log.warn("查询已消费的消息失败：{}", e.getMessage());
+        }
+        return consumed;
+    }
+
+    /**
+     * 记录已消费的消息id
+     * @param messageIds 消息id，可以包含null
+     */
+    public void markConsumed(Collection<String> messageIds) {
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String id : messageIds) {
+                    if (StrUtil.isNotBlank(id)) {
+                        connection.set((ORDER_CONSUMED_KEY + id).getBytes(StandardCharsets.UTF_8), CONSUMED,
+                                Expiration.from(ORDER_CONSUMED_TTL, TimeUnit.MINUTES), RedisStringCommands.SetOption.UPSERT);
+                    }
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("记录已消费的消息失败：{}", e.getMessage());
+        }
+    }
+}
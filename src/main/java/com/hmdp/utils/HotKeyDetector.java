@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.HotKeyDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 热点key探测
+ * 按采样率把key的访问记录到count-min sketch中，每秒计数减半衰减；
+ * 估算QPS超过阈值的key标记为热点，由RedisClient写入本地短期副本，QPS降到阈值一半以下时降级
+ * @author meidaia
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+    // sketch 行数和每行宽度
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1 << 12;
+    private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+    // 候选key最大数量
+    private static final int MAX_CANDIDATES = 1000;
+
+    @Autowired
+    private LocalCache localCache;
+
+    private final AtomicIntegerArray sketch = new AtomicIntegerArray(DEPTH * WIDTH);
+    // 候选key -> 估算QPS，用于排行
+    private final Map<String, Long> candidates = new ConcurrentHashMap<>();
+    // 热点key -> 估算QPS
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次访问，按采样率采样
+     * @param key 缓存的key
+     */
+    public void record(String key) {
+        if (ThreadLocalRandom.current().nextDouble() >= HOT_KEY_SAMPLE_RATE) {
+            return;
+        }
+        int hash = key.hashCode();
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, sketch.incrementAndGet(index(i, hash)));
+        }
+        long qps = toQps(min);
+        if (qps >= HOT_KEY_QPS / 10) {
+            if (candidates.size() < MAX_CANDIDATES || candidates.containsKey(key)) {
+                candidates.put(key, qps);
+            }
+        }
+        if (qps >= HOT_KEY_QPS && hotKeys.put(key, qps) == null) {
+            log.info("发现热点key {}，估算QPS {}", key, qps);
+        }
+    }
+
+    /**
+     * 是否是热点key
+     * @param key 缓存的key
+     */
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 访问量最高的key
+     * @param limit 数量
+     */
+    public List<HotKeyDTO> topK(int limit) {
+        return candidates.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+                .limit(limit)
+                .map(entry -> new HotKeyDTO(entry.getKey(), entry.getValue(), hotKeys.containsKey(entry.getKey())))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 每秒衰减一次，计数减半，并重新评估候选key和热点key
+     */
+    @Scheduled(fixedRate = 1000)
+    public void decay() {
+        for (int i = 0; i < sketch.length(); i++) {
+            int value = sketch.get(i);
+            if (value != 0) {
+                sketch.addAndGet(i, -(value >> 1));
+            }
+        }
+        candidates.replaceAll((key, qps) -> estimate(key));
+        candidates.values().removeIf(qps -> qps < HOT_KEY_QPS / 10);
+        hotKeys.replaceAll((key, qps) -> estimate(key));
+        hotKeys.entrySet().removeIf(entry -> {
+            if (entry.getValue() >= HOT_KEY_QPS / 2) {
+                return false;
+            }
+            // 降级，删除本地副本
+            localCache.evictHot(entry.getKey());
+            log.info("热点key {} 降级，估算QPS {}", entry.getKey(), entry.getValue());
+            return true;
+        });
+    }
+
+    private long estimate(String key) {
+        int hash = key.hashCode();
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, sketch.get(index(i, hash)));
+        }
+        return toQps(min);
+    }
+
+    /**
+     * 每秒减半时，稳定后的计数约为每秒采样次数的2倍
+     */
+    private static long toQps(int count) {
+        return (long) (count / 2.0 / HOT_KEY_SAMPLE_RATE);
+    }
+
+    private static int index(int row, int hash) {
+        int h = hash * SEEDS[row];
+        h ^= h >>> 16;
+        return row * WIDTH + (h & (WIDTH - 1));
+    }
+}
@@ -0,0 +1,145 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.BloomFilterStatsDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.VoucherMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 店铺、优惠券id的布隆过滤器，防止缓存穿透
+ * 每个节点启动时从数据库加载全部id，新增数据时通过redis广播给所有节点；
+ * 加载在订阅广播之后进行，并定期从数据库重建，广播丢失或加载期间新增的id不会一直被拦截
+ * @author meidaia
+ */
+@Slf4j
+@Component
+public class IdBloomFilter {
+    public static final String SHOP = "shop";
+    public static final String VOUCHER = "voucher";
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Autowired
+    private ShopMapper shopMapper;
+    @Autowired
+    private VoucherMapper voucherMapper;
+
+    // 名称 -> 布隆过滤器
+    private final Map<String, BloomFilter> filters = new ConcurrentHashMap<>();
+    // 重建期间收到的新增id，替换过滤器后补充到新的过滤器中
+    private List<Object[]> pending;
+
+    /**
+     * 启动完成后加载，此时广播监听已经订阅，加载期间新增的id不会丢失；加载完成前查询全部放行
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        rebuild();
+        stats().forEach(stats -> log.info("布隆过滤器加载完成：{}", stats));
+    }
+
+    /**
+     * 从数据库重建过滤器，补上丢失的广播
+     */
+    @Scheduled(fixedDelay = 600000, initialDelay = 600000)
+    public void rebuild() {
+        synchronized (this) {
+            pending = new ArrayList<>();
+        }
+        Map<String, BloomFilter> rebuilt = new HashMap<>();
+        try {
+            rebuilt.put(SHOP, build(shopMapper.selectObjs(new QueryWrapper<Shop>().select("id"))));
+            rebuilt.put(VOUCHER, build(voucherMapper.selectObjs(new QueryWrapper<Voucher>().select("id"))));
+        } catch (Exception e) {
+            // 加载失败时保留原来的过滤器，首次加载失败时查询全部放行
+            log.error("布隆过滤器加载失败，沿用原来的过滤器", e);
+        }
+        synchronized (this) {
+            filters.putAll(rebuilt);
+            List<Object[]> added = pending;
+            pending = null;
+            added.forEach(item -> addLocal((String) item[0], (Long) item[1]));
+        }
+    }
+
+    private BloomFilter build(List<Object> ids) {
+        BloomFilter filter = new BloomFilter(Math.max(BLOOM_EXPECTED_INSERTIONS, ids.size() * 2L), BLOOM_FPP);
+        ids.forEach(id -> filter.add(((Number) id).longValue()));
+        return filter;
+    }
+
+    /**
+     * 判断id是否可能存在
+     * @param name 过滤器名称
+     * @param id 数据id
+     * @return false表示一定不存在
+     */
+    public boolean mightContain(String name, Long id) {
+        if (id == null) {
+            return false;
+        }
+        BloomFilter filter = filters.get(name);
+        // 过滤器未加载，放行
+        return filter == null || filter.mightContain(id);
+    }
+
+    /**
+     * 新增id，并广播给其他节点
+     * @param name 过滤器名称
+     * @param id 数据id
+     */
+    public void add(String name, Long id) {
+        addLocal(name, id);
+        redisTemplate.convertAndSend(BLOOM_FILTER_CHANNEL, name + ":" + id);
+    }
+
+    /**
+     * 新增id，只修改本节点
+     * @param name 过滤器名称
+     * @param id 数据id
+     */
+    public synchronized void addLocal(String name, Long id) {
+        if (id == null) {
+            return;
+        }
+        BloomFilter filter = filters.get(name);
+        if (filter != null) {
+            filter.add(id);
+        }
+        if (pending != null) {
+            pending.add(new Object[]{name, id});
+        }
+    }
+
+    /**
+     * 过滤器统计信息
+     */
+    public List<BloomFilterStatsDTO> stats() {
+        List<BloomFilterStatsDTO> list = new ArrayList<>();
+        filters.forEach((name, filter) -> list.add(new BloomFilterStatsDTO(
+                name,
+                filter.getInsertions(),
+                filter.getBitSize(),
+                filter.getHashFunctions(),
+                filter.expectedFpp()
+        )));
+        return list;
+    }
+}
@@ -0,0 +1,159 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 号段方式分配自增序列号
+ * 每个节点用一次INCRBY从redis租用一段序列号(按天自增，与逐个INCR使用同一个key)，在本地用原子计数器逐个发放；
+ * 当前号段用掉80%时异步租用下一段，用完时直接切换，发号不等待redis。
+ * 号段只在租用当天有效，跨天后丢弃剩余的序列号，保证 时间戳+序列号 不重复
+ * @author meidaia
+ */
+@Slf4j
+@Component
+public class IdSegmentAllocator {
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    // 预取号段的线程池，每个key同时只有一个预取任务
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            1,
+            1,
+            60L,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(64),
+            r -> {
+                Thread thread = new Thread(r, "id-segment-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy()
+    );
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    // key前缀 -> 号段
+    private final Map<String, Buffer> buffers = new ConcurrentHashMap<>();
+
+    /**
+     * 获取序列号
+     * @param keyPrefix key前缀
+     * @param day 序列号所属的日期，与id中的时间戳为同一天
+     * @return 当天内不重复的序列号
+     */
+    public long next(String keyPrefix, LocalDate day) {
+        Buffer buffer = buffers.computeIfAbsent(keyPrefix, Buffer::new);
+        while (true) {
+            Segment segment = buffer.current;
+            if (segment == null || segment.day.isBefore(day)) {
+                // 第一次使用或已跨天
+                switchSegment(buffer, segment, day);
+                continue;
+            }
+            if (segment.day.isAfter(day)) {
+                // 跨天时仍在使用前一天时间戳的请求，单独取号，不替换号段
+                return redisTemplate.opsForValue().increment(key(keyPrefix, day));
+            }
+            long value = segment.cursor.getAndIncrement();
+            if (value == segment.prefetchAt) {
+                prefetch(buffer, day);
+            }
+            if (value <= segment.end) {
+                return value;
+            }
+            // 当前号段已用完
+            switchSegment(buffer, segment, day);
+        }
+    }
+
+    /**
+     * 异步租用下一个号段
+     */
+    private void prefetch(Buffer buffer, LocalDate day) {
+        try {
+            buffer.next = CompletableFuture.supplyAsync(() -> lease(buffer.keyPrefix, day), EXECUTOR);
+        } catch (Exception e) {
+            // 预取任务被拒绝时，用完后同步租用
+            log.warn("预取号段 {} 失败：{}", buffer.keyPrefix, e.getMessage());
+        }
+    }
+
+    /**
+     * 切换到下一个号段，优先使用预取的号段，没有预取或预取失败时同步租用
+     * @param expected 切换前的号段，已被其他线程切换时直接返回
+     */
+    private void switchSegment(Buffer buffer, Segment expected, LocalDate day) {
+        synchronized (buffer) {
+            if (buffer.current != expected) {
+                return;
+            }
+            Segment segment = null;
+            CompletableFuture<Segment> next = buffer.next;
+            buffer.next = null;
+            if (next != null) {
+                try {
+                    segment = next.join();
+                } catch (Exception e) {
+                    log.warn("预取号段 {} 失败：{}", buffer.keyPrefix, e.getMessage());
+                }
+            }
+            if (segment == null || !segment.day.equals(day)) {
+                segment = lease(buffer.keyPrefix, day);
+            }
+            buffer.current = segment;
+        }
+    }
+
+    private Segment lease(String keyPrefix, LocalDate day) {
+        Long end = redisTemplate.opsForValue().increment(key(keyPrefix, day), ID_SEGMENT_STEP);
+        if (end == null) {
+            throw new IllegalStateException("租用号段失败：" + keyPrefix);
+        }
+        return new Segment(day, end - ID_SEGMENT_STEP + 1, end);
+    }
+
+    private static String key(String keyPrefix, LocalDate day) {
+        return ID_INCR_KEY + keyPrefix + ":" + DAY_FORMATTER.format(day);
+    }
+
+    private static class Buffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        // 预取中的下一个号段
+        private volatile CompletableFuture<Segment> next;
+
+        Buffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+    }
+
+    private static class Segment {
+        private final LocalDate day;
+        private final AtomicLong cursor;
+        private final long end;
+        // 发放到这个序列号时开始预取
+        private final long prefetchAt;
+
+        Segment(LocalDate day, long start, long end) {
+            this.day = day;
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+            this.prefetchAt = start + (long) ((end - start + 1) * ID_SEGMENT_PREFETCH_RATIO);
+        }
+    }
+}
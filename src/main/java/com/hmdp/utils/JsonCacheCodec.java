@@ -0,0 +1,43 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.RedisData;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JSON格式缓存编解码，兼容原有的缓存数据
+ * @author meidaia
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        // 兜底格式，需要排在能识别数据头的格式之后
+        return true;
+    }
+
+    @Override
+    public byte[] encode(Object data) {
+        return JSONUtil.toJsonStr(data).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData<?> redisData) {
+        return encode(redisData);
+    }
+
+    @Override
+    public <T> RedisData<T> decodeLogical(byte[] bytes, Class<T> type) {
+        // 先解析外层，再解析data
+        RedisData<?> redisData = decode(bytes, RedisData.class);
+        T data = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        return new RedisData<>(redisData.getExpireTime(), data, redisData.getDelta());
+    }
+}
@@ -0,0 +1,181 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内一级缓存(L1)，位于redis之前
+ * 按key前缀划分区域，每个区域独立限制容量和存活时间，未注册前缀的key不会进入本地缓存；
+ * 另有一个热点区域，存放被探测为热点的key的短期副本，不区分前缀；
+ * 同一个值会返回给所有调用方，调用方负责在存取时复制(见 {@link CacheCopier})或不对外暴露缓存的对象
+ * @author meidaia
+ */
+public class LocalCache {
+    /**
+     * 空值占位，表示数据库中不存在该数据
+     */
+    public static final Object NULL_VALUE = new Object();
+
+    // key前缀 -> 区域
+    private final Map<String, Region> regions = new ConcurrentHashMap<>();
+    // 热点key副本
+    private volatile Region hotRegion;
+
+    /**
+     * 注册缓存区域
+     * @param keyPrefix key前缀
+     * @param maxSize 最大容量
+     * @param ttl 存活时间
+     * @param timeUnit 时间单位
+     */
+    public void addRegion(String keyPrefix, int maxSize, long ttl, TimeUnit timeUnit) {
+        regions.put(keyPrefix, new Region(maxSize, timeUnit.toNanos(ttl)));
+    }
+
+    /**
+     * 开启热点区域
+     * @param maxSize 最大容量
+     * @param ttl 存活时间，应远小于普通区域
+     * @param timeUnit 时间单位
+     */
+    public void setHotRegion(int maxSize, long ttl, TimeUnit timeUnit) {
+        hotRegion = new Region(maxSize, timeUnit.toNanos(ttl));
+    }
+
+    /**
+     * 查询本地缓存
+     * @param key 缓存的key
+     * @return 未命中返回null，命中空值返回 {@link #NULL_VALUE}
+     */
+    public Object get(String key) {
+        Region region = regionOf(key);
+        Object value = region == null ? null : region.get(key);
+        Region hot = hotRegion;
+        if (value == null && hot != null) {
+            value = hot.get(key);
+        }
+        return value;
+    }
+
+    /**
+     * key是否属于某个普通区域
+     * @param key 缓存的key
+     */
+    public boolean hasRegion(String key) {
+        return regionOf(key) != null;
+    }
+
+    /**
+     * 写入热点副本
+     * @param key 缓存的key
+     * @param value 缓存的数据，为null时写入空值占位
+     */
+    public void putHot(String key, Object value) {
+        Region hot = hotRegion;
+        if (hot != null) {
+            hot.put(key, value == null ? NULL_VALUE : value);
+        }
+    }
+
+    /**
+     * 删除热点副本
+     * @param key 缓存的key
+     */
+    public void evictHot(String key) {
+        Region hot = hotRegion;
+        if (hot != null) {
+            hot.remove(key);
+        }
+    }
+
+    /**
+     * 写入本地缓存，key不属于任何区域时忽略
+     * @param key 缓存的key
+     * @param value 缓存的数据，为null时写入空值占位
+     */
+    public void put(String key, Object value) {
+        Region region = regionOf(key);
+        if (region != null) {
+            region.put(key, value == null ? NULL_VALUE : value);
+        }
+    }
+
+    /**
+     * 删除本地缓存
+     * @param key 缓存的key
+     */
+    public void evict(String key) {
+        Region region = regionOf(key);
+        if (region != null) {
+            region.remove(key);
+        }
+        evictHot(key);
+    }
+
+    /**
+     * 按最长前缀匹配区域，避免 cache:shop: 与 cache:shop:type 混淆
+     */
+    private Region regionOf(String key) {
+        Region matched = null;
+        int matchedLength = -1;
+        for (Map.Entry<String, Region> entry : regions.entrySet()) {
+            String prefix = entry.getKey();
+            if (key.startsWith(prefix) && prefix.length() > matchedLength) {
+                matched = entry.getValue();
+                matchedLength = prefix.length();
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * 单个区域，LRU淘汰 + 写入后过期
+     */
+    private static class Region {
+        private final long ttlNanos;
+        private final LinkedHashMap<String, Entry> map;
+
+        Region(int maxSize, long ttlNanos) {
+            this.ttlNanos = ttlNanos;
+            this.map = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        synchronized Object get(String key) {
+            Entry entry = map.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.nanoTime() - entry.expireAt > 0) {
+                // 已过期，移除
+                map.remove(key);
+                return null;
+            }
+            return entry.value;
+        }
+
+        synchronized void put(String key, Object value) {
+            map.put(key, new Entry(value, System.nanoTime() + ttlNanos));
+        }
+
+        synchronized void remove(String key) {
+            map.remove(key);
+        }
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long expireAt;
+
+        Entry(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+}
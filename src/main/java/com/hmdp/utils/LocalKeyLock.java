@@ -0,0 +1,127 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 分布式锁前的本地锁
+ * 同一个key先竞争本节点的本地锁，只有本地胜出的线程访问redis，其余线程在本地排队或直接失败；
+ * redis看到的加锁次数与节点数成正比，而不是与线程数成正比。
+ * 本地锁按key创建，引用计数归零时移除，不同key之间互不影响
+ * @author meidaia
+ */
+@Component
+public class LocalKeyLock {
+    // 锁的key -> 本地锁
+    private final Map<String, LocalLock> locks = new ConcurrentHashMap<>();
+
+    /**
+     * 尝试获取锁，本节点已有其他线程持有或正在获取同一个key时直接失败，不访问redis
+     * @param key 锁的key
+     * @param remote 获取分布式锁
+     * @return 本地和分布式锁都获取成功返回true
+     */
+    public boolean tryLock(String key, BooleanSupplier remote) {
+        LocalLock lock = retain(key);
+        if (!lock.tryLock()) {
+            release(key, lock);
+            return false;
+        }
+        boolean locked = false;
+        try {
+            locked = remote.getAsBoolean();
+            return locked;
+        } finally {
+            if (!locked) {
+                unlock(key, lock);
+            }
+        }
+    }
+
+    /**
+     * 获取锁，本地按顺序排队，轮到时再获取分布式锁
+     * @param key 锁的key
+     * @param timeout 最长等待时间，包括本地排队的时间
+     * @param timeUnit 时间单位
+     * @param remote 获取分布式锁，参数为剩余的等待时间
+     * @return 超时前获取成功返回true
+     */
+    public boolean lock(String key, long timeout, TimeUnit timeUnit, TimedLock remote) throws InterruptedException {
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+        LocalLock lock = retain(key);
+        boolean acquired = false;
+        try {
+            acquired = lock.tryLock(timeout, timeUnit);
+        } finally {
+            if (!acquired) {
+                release(key, lock);
+            }
+        }
+        if (!acquired) {
+            return false;
+        }
+        boolean locked = false;
+        try {
+            locked = remote.lock(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            return locked;
+        } finally {
+            if (!locked) {
+                unlock(key, lock);
+            }
+        }
+    }
+
+    /**
+     * 释放本地锁，需要在释放分布式锁之后调用
+     * @param key 锁的key
+     */
+    public void unlock(String key) {
+        LocalLock lock = locks.get(key);
+        if (lock != null && lock.isHeldByCurrentThread()) {
+            unlock(key, lock);
+        }
+    }
+
+    private void unlock(String key, LocalLock lock) {
+        lock.unlock();
+        release(key, lock);
+    }
+
+    /**
+     * 引用本地锁，不存在时创建
+     */
+    private LocalLock retain(String key) {
+        return locks.compute(key, (k, lock) -> {
+            if (lock == null) {
+                lock = new LocalLock();
+            }
+            lock.refs++;
+            return lock;
+        });
+    }
+
+    /**
+     * 取消引用，没有线程持有或等待时移除
+     */
+    private void release(String key, LocalLock lock) {
+        locks.computeIfPresent(key, (k, current) -> current != lock || --current.refs > 0 ? current : null);
+    }
+
+    /**
+     * 带等待时间的分布式锁
+     */
+    @FunctionalInterface
+    public interface TimedLock {
+        boolean lock(long timeout, TimeUnit timeUnit) throws InterruptedException;
+    }
+
+    private static class LocalLock extends ReentrantLock {
+        // 持有、重入和等待该锁的次数，只在 compute 中修改
+        private int refs;
+    }
+}
@@ -0,0 +1,99 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.BooleanUtil;
+import com.hmdp.dto.UserDTO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 登录会话的本地缓存
+ * 会话在本地一级缓存中保存 LOCAL_SESSION_TTL 秒，命中时不访问redis；未命中时一次往返同时读取会话和剩余有效期；
+ * 剩余有效期低于 LOGIN_USER_REFRESH_THRESHOLD 分钟时才续期，不再每个请求都续期。
+ * 登出时删除redis中的会话并通过缓存失效频道广播，各节点删除本地副本
+ * @author meidaia
+ */
+@Component
+public class LoginSessionCache {
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Autowired
+    private LocalCache localCache;
+    @Autowired
+    private RedisClient redisClient;
+
+    /**
+     * 查询登录用户，会话即将过期时续期
+     * @param token 登录凭证
+     * @return 会话不存在或已过期时返回null
+     */
+    public UserDTO get(String token) {
+        String key = LOGIN_USER_KEY + token;
+        Object cached = localCache.get(key);
+        Session session = cached instanceof Session ? (Session) cached : load(key);
+        if (session == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (session.expireAt - now < TimeUnit.MINUTES.toMillis(LOGIN_USER_REFRESH_THRESHOLD)) {
+            // 续期失败说明会话已在redis中过期或被删除，本地副本也作废
+            if (!BooleanUtil.isTrue(redisTemplate.expire(key, LOGIN_USER_TTL, TimeUnit.MINUTES))) {
+                localCache.evict(key);
+                return null;
+            }
+            session.expireAt = now + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+        }
+        // 返回副本，本地缓存中的会话被同一节点的所有请求共享
+        return CacheCopier.copy(session.user);
+    }
+
+    /**
+     * 删除会话，通知所有节点删除本地副本
+     * @param token 登录凭证
+     */
+    public void invalidate(String token) {
+        redisClient.delete(LOGIN_USER_KEY + token);
+    }
+
+    /**
+     * 从redis读取会话和剩余有效期，写入本地缓存
+     */
+    @SuppressWarnings("unchecked")
+    private Session load(String key) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hGetAll(rawKey);
+            connection.pTtl(rawKey);
+            return null;
+        });
+        Map<Object, Object> entries = (Map<Object, Object>) results.get(0);
+        if (entries == null || entries.isEmpty()) {
+            return null;
+        }
+        Long ttl = (Long) results.get(1);
+        Session session = new Session(BeanUtil.fillBeanWithMap(entries, new UserDTO(), false),
+                System.currentTimeMillis() + (ttl == null || ttl < 0 ? 0 : ttl));
+        localCache.put(key, session);
+        return session;
+    }
+
+    private static class Session {
+        private final UserDTO user;
+        // redis中会话的过期时间，单位毫秒
+        private volatile long expireAt;
+
+        Session(UserDTO user, long expireAt) {
+            this.user = user;
+            this.expireAt = expireAt;
+        }
+    }
+}
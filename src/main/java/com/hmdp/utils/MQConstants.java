@@ -4,4 +4,18 @@ public class MQConstants {
     public static final String ORDER_CREATE_QUEUE = "order.create.queue";
     public static final String ORDER_CREATE_EXCHANGE = "order.create.exchange";
     public static final String ORDER_CREATE_KEY = "order.create";
+    // 创建订单失败的消息转入的死信交换机和队列，由人工排查后补单
+    public static final String ORDER_CREATE_DLX = "order.create.dlx";
+    public static final String ORDER_CREATE_DLQ = "order.create.dlq";
+    public static final String ORDER_CREATE_DEAD_KEY = "order.create.dead";
+    // 批量消费时失败消息的重新投递次数，超过后转入死信队列
+    public static final String ORDER_RETRY_HEADER = "x-order-retry";
+    public static final int ORDER_CREATE_MAX_RETRY = 3;
+
+    // 待发送队列容量
+    public static final int ORDER_OUTBOX_CAPACITY = 10000;
+    // 每批发送的消息数
+    public static final int ORDER_PUBLISH_BATCH = 100;
+    // 等待broker确认的超时时间，单位毫秒
+    public static final long ORDER_CONFIRM_TIMEOUT = 5000L;
 }
@@ -0,0 +1,22 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+
+/**
+ * 秒杀成功的订单交给后台创建
+ * hmdp.order.intake=mq 时经RabbitMQ发送({@link OrderPublisher})，ring 时放入进程内的环形队列({@link OrderRingBuffer})
+ * @author meidaia
+ */
+public interface OrderIntake {
+    /**
+     * 提交订单，不等待订单写入数据库
+     * @param order 订单
+     * @return 订单已交出(写入日志或待发送队列)返回true；返回false时订单不会被创建，调用方需要回滚库存
+     */
+    boolean publish(VoucherOrder order);
+
+    /**
+     * 已提交还没有交出(发送到broker或写入数据库)的订单数
+     */
+    int pending();
+}
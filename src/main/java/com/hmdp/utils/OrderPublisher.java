@@ -0,0 +1,248 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.hmdp.utils.MQConstants.*;
+
+/**
+ * 创建订单消息的异步发送
+ * 请求线程只把订单放入有界的待发送队列，队列已满时直接返回失败，由调用方回滚库存，请求线程不做磁盘IO；
+ * 后台线程批量序列化、发送并等待broker确认，发送失败或未确认的消息追加到本地文件并刷盘，定时重新发送，
+ * 保证redis中已扣减的库存对应的订单不会丢失
+ * @author meidaia
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.order.intake", havingValue = "mq", matchIfMissing = true)
+public class OrderPublisher implements OrderIntake {
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    // 本地暂存文件，每行一条消息
+    @Value("${hmdp.order.spill-file:data/order-spill.log}")
+    private File spillFile;
+
+    // 待发送的订单
+    private final BlockingQueue<VoucherOrder> outbox = new ArrayBlockingQueue<>(ORDER_OUTBOX_CAPACITY);
+    // 写暂存文件的锁
+    private final Object spillLock = new Object();
+
+    private volatile boolean running = true;
+    private Thread flusher;
+
+    @PostConstruct
+    public void init() {
+        flusher = new Thread(this::flushLoop, "order-publisher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * 发送创建订单消息，不阻塞
+     * @param order 订单
+     * @return 放入待发送队列返回true，队列已满(broker长时间不可用)时返回false
+     */
+    @Override
+    public boolean publish(VoucherOrder order) {
+        if (!outbox.offer(order)) {
+            log.warn("订单待发送队列已满，订单 {} 提交失败", order.getId());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 当前待发送的订单数
+     */
+    @Override
+    public int pending() {
+        return outbox.size();
+    }
+
+    private void flushLoop() {
+        List<VoucherOrder> batch = new ArrayList<>(ORDER_PUBLISH_BATCH);
+        while (running || !outbox.isEmpty()) {
+            try {
+                VoucherOrder first = outbox.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                outbox.drainTo(batch, ORDER_PUBLISH_BATCH - 1);
+                List<String> messages = new ArrayList<>(batch.size());
+                batch.forEach(order -> messages.add(JSONUtil.toJsonStr(order)));
+                send(messages);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("发送订单消息异常", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 批量发送，全部发出后统一等待确认，未确认的写入暂存文件
+     * @param messages 消息
+     * @return 全部被broker确认或写入暂存文件返回true
+     */
+    private boolean send(List<String> messages) {
+        List<String> failed = new ArrayList<>();
+        List<CorrelationData> correlations = new ArrayList<>(messages.size());
+        List<String> sent = new ArrayList<>(messages.size());
+        for (String message : messages) {
+            CorrelationData correlation = new CorrelationData();
+            try {
+                rabbitTemplate.convertAndSend(ORDER_CREATE_EXCHANGE, ORDER_CREATE_KEY, message, correlation);
+                correlations.add(correlation);
+                sent.add(message);
+            } catch (AmqpException e) {
+                log.error("发送订单消息失败：{}", e.getMessage());
+                failed.add(message);
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ORDER_CONFIRM_TIMEOUT);
+        for (int i = 0; i < correlations.size(); i++) {
+            CorrelationData correlation = correlations.get(i);
+            try {
+                CorrelationData.Confirm confirm = correlation.getFuture()
+                        .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (!confirm.isAck() || correlation.getReturnedMessage() != null) {
+                    log.error("订单消息未被broker接收：{}", confirm.getReason());
+                    failed.add(sent.get(i));
+                }
+            } catch (TimeoutException | ExecutionException e) {
+                failed.add(sent.get(i));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.addAll(sent.subList(i, sent.size()));
+                break;
+            }
+        }
+        return failed.isEmpty() || spill(failed);
+    }
+
+    /**
+     * 追加到暂存文件并刷盘，只在后台线程调用
+     * @param messages 消息
+     * @return 是否写入成功
+     */
+    private boolean spill(List<String> messages) {
+        synchronized (spillLock) {
+            File dir = spillFile.getAbsoluteFile().getParentFile();
+            if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                log.error("创建暂存目录失败：{}", dir);
+            }
+            try (FileOutputStream out = new FileOutputStream(spillFile, true);
+                 Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+                for (String message : messages) {
+                    writer.write(message);
+                    writer.write('\n');
+                }
+                writer.flush();
+                out.getFD().sync();
+            } catch (IOException e) {
+                // 暂存也失败时只能记录日志，由redis中的已购记录人工补单
+                log.error("订单消息写入暂存文件失败：{}", messages, e);
+                return false;
+            }
+        }
+        log.warn("{} 条订单消息写入暂存文件 {}", messages.size(), spillFile);
+        return true;
+    }
+
+    /**
+     * 重新发送暂存文件中的消息
+     * 先把暂存文件改名再发送，发送期间新的失败消息写入新的暂存文件；进程中途退出时下次继续发送改名后的文件
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void replay() {
+        File replaying = new File(spillFile.getPath() + ".replaying");
+        if (!replaying.exists()) {
+            synchronized (spillLock) {
+                if (!spillFile.exists() || !spillFile.renameTo(replaying)) {
+                    return;
+                }
+            }
+        }
+        try (BufferedReader reader = Files.newBufferedReader(replaying.toPath(), StandardCharsets.UTF_8)) {
+            List<String> batch = new ArrayList<>(ORDER_PUBLISH_BATCH);
+            int count = 0;
+            // 有消息既没有发送成功也没有写入新的暂存文件时保留改名后的文件，下次整体重发，重复的订单由消费端去重
+            boolean done = true;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                batch.add(line);
+                if (batch.size() == ORDER_PUBLISH_BATCH) {
+                    done &= send(batch);
+                    count += batch.size();
+                    batch = new ArrayList<>(ORDER_PUBLISH_BATCH);
+                }
+            }
+            if (!batch.isEmpty()) {
+                done &= send(batch);
+                count += batch.size();
+            }
+            log.info("重新发送暂存的订单消息 {} 条", count);
+            if (!done) {
+                log.error("部分暂存的订单消息重发失败，保留暂存文件 {}", replaying);
+                return;
+            }
+        } catch (IOException e) {
+            log.error("读取暂存文件失败 {}", replaying, e);
+            return;
+        }
+        if (!replaying.delete()) {
+            log.error("删除暂存文件失败 {}", replaying);
+        }
+    }
+
+    /**
+     * 停止时发送完队列中的消息，发送不出去的写入暂存文件
+     */
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        running = false;
+        flusher.join(ORDER_CONFIRM_TIMEOUT * 2);
+        List<VoucherOrder> rest = new ArrayList<>();
+        outbox.drainTo(rest);
+        if (!rest.isEmpty()) {
+            List<String> messages = new ArrayList<>(rest.size());
+            rest.forEach(order -> messages.add(JSONUtil.toJsonStr(order)));
+            spill(messages);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.OrderResultDTO;
+import com.hmdp.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 订单创建结果
+ * 消费者创建订单后把结果写入redis(短期有效)并广播，客户端按订单id查询，不再轮询订单表；
+ * 查询时结果还没有写入的请求挂起等待，收到广播后立即返回，超时返回处理中
+ * @author meidaia
+ */
+@Slf4j
+@Component
+public class OrderResultStore {
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    // 查询结果的最长等待时间，单位毫秒
+    @Value("${hmdp.order.result.timeout:10000}")
+    private long timeout;
+
+    // 订单id -> 等待结果的请求
+    private final Map<Long, List<Waiter>> waiters = new ConcurrentHashMap<>();
+
+    /**
+     * 写入结果并广播，同一批结果在一次往返中完成
+     * @param results 结果
+     */
+    public void save(List<OrderResultDTO> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        byte[] channel = SECKILL_RESULT_CHANNEL.getBytes(StandardCharsets.UTF_8);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (OrderResultDTO result : results) {
+                byte[] json = JSONUtil.toJsonStr(result).getBytes(StandardCharsets.UTF_8);
+                connection.set((SECKILL_RESULT_KEY + result.getOrderId()).getBytes(StandardCharsets.UTF_8), json,
+                        Expiration.from(SECKILL_RESULT_TTL, TimeUnit.MINUTES), RedisStringCommands.SetOption.UPSERT);
+                connection.publish(channel, json);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 查询结果
+     * @param orderId 订单id
+     * @return 还没有结果或已过期时返回null
+     */
+    public OrderResultDTO get(Long orderId) {
+        String json = redisTemplate.opsForValue().get(SECKILL_RESULT_KEY + orderId);
+        return StrUtil.isBlank(json) ? null : JSONUtil.toBean(json, OrderResultDTO.class);
+    }
+
+    /**
+     * 等待结果，已有结果时立即返回
+     * @param orderId 订单id
+     * @param userId 当前用户id，只返回自己的订单
+     */
+    public DeferredResult<Result> await(Long orderId, Long userId) {
+        DeferredResult<Result> deferred = new DeferredResult<>(timeout,
+                () -> Result.ok(new OrderResultDTO().setOrderId(orderId).setStatus(OrderResultDTO.PENDING)));
+        Waiter waiter = new Waiter(userId, deferred);
+        waiters.computeIfAbsent(orderId, id -> new CopyOnWriteArrayList<>()).add(waiter);
+        deferred.onCompletion(() -> waiters.computeIfPresent(orderId, (id, list) -> {
+            list.remove(waiter);
+            return list.isEmpty() ? null : list;
+        }));
+        // 先登记再查询，结果在登记前写入时也不会错过
+        OrderResultDTO result = get(orderId);
+        if (result != null) {
+            waiter.complete(result);
+        }
+        return deferred;
+    }
+
+    /**
+     * 收到结果广播，唤醒本节点等待该订单的请求
+     * @param json 结果
+     */
+    public void onResult(String json) {
+        OrderResultDTO result;
+        try {
+            result = JSONUtil.toBean(json, OrderResultDTO.class);
+        } catch (Exception e) {
+            log.error("订单结果消息格式错误：{}", json);
+            return;
+        }
+        List<Waiter> list = waiters.get(result.getOrderId());
+        if (list != null) {
+            list.forEach(waiter -> waiter.complete(result));
+        }
+    }
+
+    private static class Waiter {
+        private final Long userId;
+        private final DeferredResult<Result> deferred;
+
+        Waiter(Long userId, DeferredResult<Result> deferred) {
+            this.userId = userId;
+            this.deferred = deferred;
+        }
+
+        void complete(OrderResultDTO result) {
+            if (!userId.equals(result.getUserId())) {
+                deferred.setResult(Result.fail("订单不存在"));
+                return;
+            }
+            deferred.setResult(Result.ok(result));
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.listener.CreateOrderListener;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.MQConstants.ORDER_CONFIRM_TIMEOUT;
+
+/**
+ * 进程内的订单环形队列，hmdp.order.intake=ring 时代替RabbitMQ
+ * 槽位预先分配，请求线程CAS抢占序号后写入槽位，不加锁也不创建对象，环满时等待写库线程腾出槽位；
+ * 日志线程把新订单批量追加到本地预写日志并刷盘后才放行请求线程，写库线程再把已落盘的订单批量写入数据库。
+ * 日志按段滚动，整段写库后删除；启动时先把残留日志中的订单写入数据库(按主键幂等)，进程崩溃时已返回成功的订单不会丢失。
+ * 写日志失败时不放行，重试直到成功；请求线程等待超时后取消自己的槽位并返回失败，由调用方回滚库存，
+ * 槽位被日志线程取走后不能取消，继续等待结果
+ * @author meidaia
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.order.intake", havingValue = "ring")
+public class OrderRingBuffer implements OrderIntake {
+    // 每条日志：订单id、用户id、优惠券id、校验和
+    private static final int RECORD_SIZE = 4 * Long.BYTES;
+    private static final long CHECKSUM_SEED = 0x9E3779B97F4A7C15L;
+    // 等待时每次挂起的时间，单位纳秒
+    private static final long PARK_NANOS = 50_000L;
+    // 启动时恢复日志的最多尝试次数
+    private static final int RECOVER_ATTEMPTS = 5;
+    // 槽位状态，与序号按位或：已被日志线程取走、已被请求线程取消
+    private static final long TAKEN = 1L << 62;
+    private static final long CANCELLED = 1L << 61;
+
+    @Autowired
+    private CreateOrderListener createOrderListener;
+
+    // 槽位数，向上取整为2的幂
+    @Value("${hmdp.order.ring.size:65536}")
+    private int size;
+    // 每批写入数据库的订单数
+    @Value("${hmdp.order.ring.batch:200}")
+    private int batchSize;
+    // 预写日志，按段写入 <journal>.<首个序号>
+    @Value("${hmdp.order.ring.journal:data/order-ring.journal}")
+    private File journalFile;
+
+    private long[] ids;
+    private long[] userIds;
+    private long[] voucherIds;
+    // 每个槽位最后写入完成的序号，附带 TAKEN/CANCELLED 状态
+    private AtomicLongArray published;
+    private int mask;
+    // 已分配的最大序号
+    private final AtomicLong cursor = new AtomicLong(-1);
+    // 已写入日志的最大序号，只由日志线程修改
+    private volatile long journaled = -1;
+    // 已写入数据库的最大序号，只由写库线程修改
+    private volatile long written = -1;
+    private volatile boolean running = true;
+
+    // 以下只由日志线程访问
+    private FileChannel segment;
+    private File segmentFile;
+    private long segmentLast = -1;
+    private final Deque<Segment> closedSegments = new ArrayDeque<>();
+
+    private Thread journalThread;
+    private Thread writerThread;
+
+    @PostConstruct
+    public void init() throws IOException {
+        int capacity = 2;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        mask = capacity - 1;
+        ids = new long[capacity];
+        userIds = new long[capacity];
+        voucherIds = new long[capacity];
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+
+        File dir = journalFile.getAbsoluteFile().getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("创建订单日志目录失败：" + dir);
+        }
+        recover(dir);
+        segmentFile = segmentFile(0);
+        segment = open(segmentFile);
+
+        journalThread = new Thread(this::journalLoop, "order-ring-journal");
+        journalThread.setDaemon(true);
+        journalThread.start();
+        writerThread = new Thread(this::writeLoop, "order-ring-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * 放入环形队列，订单写入日志后返回
+     * @param order 订单
+     * @return 等待写入日志超时返回false，此时订单已取消，不会写入数据库
+     */
+    @Override
+    public boolean publish(VoucherOrder order) {
+        long seq = claim();
+        int index = (int) seq & mask;
+        ids[index] = order.getId();
+        userIds[index] = order.getUserId();
+        voucherIds[index] = order.getVoucherId();
+        published.set(index, seq);
+
+        // 等待日志刷盘，多个请求共用一次刷盘
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ORDER_CONFIRM_TIMEOUT);
+        while (journaled < seq) {
+            // 超时后只有还没被日志线程取走时才能取消
+            if (System.nanoTime() - deadline > 0 && published.compareAndSet(index, seq, seq | CANCELLED)) {
+                log.warn("订单 {} 等待写入日志超时，已取消", order.getId());
+                return false;
+            }
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return true;
+    }
+
+    @Override
+    public int pending() {
+        return (int) (cursor.get() - written);
+    }
+
+    /**
+     * 抢占下一个序号，槽位还没有写入数据库时等待
+     */
+    private long claim() {
+        while (true) {
+            long current = cursor.get();
+            long next = current + 1;
+            if (next - ids.length > written) {
+                LockSupport.parkNanos(PARK_NANOS);
+                continue;
+            }
+            if (cursor.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * 日志线程：取走连续写入完成的槽位，追加到日志并刷盘，已取消的槽位跳过
+     */
+    private void journalLoop() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * batchSize);
+        int failures = 0;
+        while (running || journaled < cursor.get()) {
+            long first = journaled + 1;
+            long last = first - 1;
+            buffer.clear();
+            while (last - first + 1 < batchSize) {
+                long seq = last + 1;
+                int index = (int) seq & mask;
+                long state = published.get(index);
+                if (state == seq) {
+                    if (!published.compareAndSet(index, seq, seq | TAKEN)) {
+                        // 刚被请求线程取消，重新判断
+                        continue;
+                    }
+                    buffer.putLong(ids[index]).putLong(userIds[index]).putLong(voucherIds[index])
+                            .putLong(checksum(ids[index], userIds[index], voucherIds[index]));
+                } else if (state != (seq | CANCELLED)) {
+                    break;
+                }
+                last = seq;
+            }
+            if (last < first) {
+                removeWrittenSegments();
+                LockSupport.parkNanos(PARK_NANOS);
+                continue;
+            }
+            buffer.flip();
+            if (buffer.hasRemaining() && !append(buffer, first, last)) {
+                // 写入失败，放回取走的槽位，等待超时的请求线程可以取消，其余的下次重试
+                for (long seq = first; seq <= last; seq++) {
+                    published.compareAndSet((int) seq & mask, seq | TAKEN, seq);
+                }
+                failures++;
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.min(10L << Math.min(failures, 8), 1000L)));
+                continue;
+            }
+            failures = 0;
+            journaled = last;
+        }
+        // 等写库线程结束后清理已写库的日志
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        removeWrittenSegments();
+        try {
+            segment.close();
+        } catch (IOException e) {
+            log.error("关闭订单日志失败 {}", segmentFile, e);
+        }
+    }
+
+    /**
+     * 追加并刷盘，当前段写满时滚动到新的段
+     * 写入失败时当前段末尾可能有写了一半的记录，滚动到新的段，重试时写入新段；旧段中已刷盘的记录仍可恢复
+     * @return 是否写入并刷盘成功
+     */
+    private boolean append(ByteBuffer buffer, long first, long last) {
+        try {
+            if (segment.position() >= (long) ids.length * RECORD_SIZE) {
+                roll(first);
+            }
+            while (buffer.hasRemaining()) {
+                segment.write(buffer);
+            }
+            segment.force(false);
+            segmentLast = last;
+            return true;
+        } catch (IOException e) {
+            log.error("订单 {} ~ {} 写入日志失败", first, last, e);
+            try {
+                roll(first);
+            } catch (IOException ex) {
+                log.error("切换订单日志失败 {}", segmentFile(first), ex);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 关闭当前段，打开以 first 命名的新段；当前段就是以 first 命名的段时直接重新打开(清空)
+     */
+    private void roll(long first) throws IOException {
+        segment.close();
+        File next = segmentFile(first);
+        if (!next.equals(segmentFile)) {
+            closedSegments.add(new Segment(segmentFile, segmentLast));
+            segmentFile = next;
+        }
+        segment = open(segmentFile);
+    }
+
+    /**
+     * 删除已全部写入数据库的日志段，当前段已全部写库时清空
+     */
+    private void removeWrittenSegments() {
+        while (!closedSegments.isEmpty() && closedSegments.peek().last <= written) {
+            File file = closedSegments.poll().file;
+            if (!file.delete()) {
+                log.error("删除订单日志失败 {}", file);
+            }
+        }
+        try {
+            if (segment.position() > 0 && segmentLast <= written) {
+                segment.truncate(0);
+            }
+        } catch (IOException e) {
+            log.error("清空订单日志失败 {}", segmentFile, e);
+        }
+    }
+
+    /**
+     * 写库线程：把已写入日志的订单按批写入数据库，失败时重试，成功后才释放槽位
+     */
+    private void writeLoop() {
+        List<VoucherOrder> batch = new ArrayList<>(batchSize);
+        while (running || written < cursor.get()) {
+            long first = written + 1;
+            long last = Math.min(journaled, written + batchSize);
+            if (last < first) {
+                LockSupport.parkNanos(PARK_NANOS);
+                continue;
+            }
+            for (long seq = first; seq <= last; seq++) {
+                int index = (int) seq & mask;
+                if (published.get(index) == (seq | CANCELLED)) {
+                    continue;
+                }
+                batch.add(new VoucherOrder().setId(ids[index]).setUserId(userIds[index]).setVoucherId(voucherIds[index]));
+            }
+            if (!batch.isEmpty() && !save(batch, Integer.MAX_VALUE)) {
+                // 停止时仍写不进数据库，保留日志，下次启动时恢复
+                return;
+            }
+            written = last;
+            batch.clear();
+        }
+    }
+
+    /**
+     * 写入数据库，只重试失败的订单
+     * @param orders 订单
+     * @param attempts 最多尝试次数，停止时不再重试
+     * @return 是否全部成功
+     */
+    private boolean save(List<VoucherOrder> orders, int attempts) {
+        List<VoucherOrder> rest = orders;
+        for (int attempt = 1; ; attempt++) {
+            Set<Long> failed;
+            try {
+                failed = createOrderListener.saveOrders(rest);
+            } catch (Exception e) {
+                log.error("订单写入数据库失败 {} 条", rest.size(), e);
+                failed = rest.stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+            }
+            if (failed.isEmpty()) {
+                return true;
+            }
+            Set<Long> retry = failed;
+            rest = rest.stream().filter(order -> retry.contains(order.getId())).collect(Collectors.toList());
+            if (attempt >= attempts || !running) {
+                log.error("{} 条订单写入数据库失败，保留在订单日志中", rest.size());
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.min(100L << Math.min(attempt, 6), 5000L)));
+        }
+    }
+
+    /**
+     * 把上次运行残留的日志写入数据库后删除，日志末尾写了一半的记录丢弃
+     */
+    private void recover(File dir) throws IOException {
+        String prefix = journalFile.getName() + ".";
+        File[] files = dir.listFiles((d, name) -> name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+"));
+        if (files == null || files.length == 0) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(file -> Long.parseLong(file.getName().substring(prefix.length()))));
+        List<VoucherOrder> orders = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        for (File file : files) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                buffer.clear();
+                while (channel.read(buffer) > 0) {
+                    if (buffer.hasRemaining()) {
+                        continue;
+                    }
+                    buffer.flip();
+                    long id = buffer.getLong();
+                    long userId = buffer.getLong();
+                    long voucherId = buffer.getLong();
+                    if (buffer.getLong() != checksum(id, userId, voucherId)) {
+                        log.warn("订单日志 {} 校验失败，忽略之后的记录", file);
+                        break;
+                    }
+                    orders.add(new VoucherOrder().setId(id).setUserId(userId).setVoucherId(voucherId));
+                    buffer.clear();
+                }
+            }
+        }
+        log.info("从订单日志恢复订单 {} 条", orders.size());
+        for (int from = 0; from < orders.size(); from += batchSize) {
+            List<VoucherOrder> batch = orders.subList(from, Math.min(from + batchSize, orders.size()));
+            if (!save(new ArrayList<>(batch), RECOVER_ATTEMPTS)) {
+                throw new IllegalStateException("恢复订单日志失败，订单日志保留在 " + dir);
+            }
+        }
+        for (File file : files) {
+            if (!file.delete()) {
+                throw new IOException("删除订单日志失败：" + file);
+            }
+        }
+    }
+
+    /**
+     * 停止时把队列中的订单写完，写不进数据库的保留在日志中
+     */
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        running = false;
+        journalThread.join(ORDER_CONFIRM_TIMEOUT * 2);
+        long rest = cursor.get() - written;
+        if (rest > 0) {
+            log.warn("还有 {} 条订单没有写入数据库，下次启动时从订单日志恢复", rest);
+        }
+    }
+
+    private File segmentFile(long first) {
+        return new File(journalFile.getPath() + "." + first);
+    }
+
+    private static FileChannel open(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static long checksum(long id, long userId, long voucherId) {
+        return ((id * 31 + userId) * 31 + voucherId) ^ CHECKSUM_SEED;
+    }
+
+    private static class Segment {
+        private final File file;
+        private final long last;
+
+        Segment(File file, long last) {
+            this.file = file;
+            this.last = last;
+        }
+    }
+}
@@ -1,26 +1,39 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.thread.ThreadUtil;
-import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import com.hmdp.entity.RedisData;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -29,6 +42,28 @@ import static com.hmdp.utils.RedisConstants.*;
 public class RedisClient {
     @Autowired
     private StringRedisTemplate redisTemplate;
+    @Autowired
+    private LocalCache localCache;
+    @Autowired
+    private SingleFlight singleFlight;
+    @Autowired
+    private CacheCodec cacheCodec;
+    @Autowired
+    private HotKeyDetector hotKeyDetector;
+    @Autowired
+    private CacheMetrics metrics;
+    @Autowired
+    private IdSegmentAllocator idSegmentAllocator;
+    @Autowired
+    private SimpleRedisLock simpleRedisLock;
+
+    // 节点标识，缓存失效广播中携带，收到自己的广播时不再删除本地缓存
+    public static final String NODE_ID = UUID.randomUUID().toString(true);
+
+    // 读取时支持的格式，按顺序识别，切换编码期间新旧格式同时存在
+    private static final CacheCodec[] DECODERS = {new BinaryCacheCodec(), new JsonCacheCodec()};
+    // 空值占位
+    private static final byte[] EMPTY = new byte[0];
 
     /**
      * 设置缓存
@@ -36,7 +71,8 @@ public class RedisClient {
      * @param data 缓存的数据
      */
     public void set(String key, Object data) {
-        redisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(data));
+        setRaw(key, encode(key, data), null, null);
+        invalidateLocal(key);
     }
 
     /**
@@ -47,7 +83,8 @@ public class RedisClient {
      * @param timeUnit 时间单位
      */
     public void setWithExpirce(String key, Object data, long time, TimeUnit timeUnit) {
-        redisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(data), time, timeUnit);
+        setRaw(key, encode(key, data), time, timeUnit);
+        invalidateLocal(key);
     }
 
     /**
@@ -58,11 +95,219 @@ public class RedisClient {
      * @param timeUnit 时间单位
      */
     public void setWithLogicExpire(String key, Object data, long time, TimeUnit timeUnit) {
+        setLogical(key, data, null, time, timeUnit);
+    }
+
+    /**
+     * 批量设置逻辑过期缓存，多线程并行编码后通过管道一次写入，并通知所有节点删除本地缓存
+     * 用于缓存预热，每条数据的过期时间在 [minTime, maxTime) 内随机，同一批数据不会同时过期
+     * @param data key -> 缓存的数据
+     * @param delta 重建耗时，单位毫秒，用于过期前提前刷新
+     * @param minTime 最短过期时间
+     * @param maxTime 最长过期时间
+     * @param timeUnit 时间单位
+     */
+    public void setBatchWithLogicExpire(Map<String, ?> data, Long delta, long minTime, long maxTime, TimeUnit timeUnit) {
+        LocalDateTime now = LocalDateTime.now();
+        long min = timeUnit.toSeconds(minTime);
+        long max = Math.max(timeUnit.toSeconds(maxTime), min + 1);
+        Map<String, byte[]> values = data.entrySet().parallelStream()
+                .collect(Collectors.toMap(
+                        Map.Entry::getKey,
+                        entry -> encodeLogical(entry.getKey(), new RedisData<>(
+                                now.plusSeconds(ThreadLocalRandom.current().nextLong(min, max)), entry.getValue(), delta))
+                ));
+        setRawPipelined(values, null, null, Collections.emptyList());
+        invalidateLocal(data.keySet());
+    }
+
+    /**
+     * 设置逻辑过期缓存，同时记录重建耗时
+     * @param delta 重建耗时，单位毫秒
+     */
+    private void setLogical(String key, Object data, Long delta, long time, TimeUnit timeUnit) {
         RedisData<Object> redisData = new RedisData<>(
                 LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time)),
-                data
+                data,
+                delta
         );
-        redisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setRaw(key, encodeLogical(key, redisData), null, null);
+        invalidateLocal(key);
+    }
+
+    /**
+     * 删除缓存，同时通知所有节点删除本地缓存
+     * @param key 缓存的key
+     */
+    public void delete(String key) {
+        redisTemplate.delete(key);
+        invalidateLocal(key);
+    }
+
+    /**
+     * 删除本节点的本地缓存，并广播给其他节点
+     * 消息格式为 节点标识|key，本节点收到后只唤醒等待的线程，不会删除随后写入的本地缓存
+     * @param key 缓存的key
+     */
+    private void invalidateLocal(String key) {
+        localCache.evict(key);
+        redisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, NODE_ID + "|" + key);
+    }
+
+    /**
+     * 批量删除本地缓存，通过管道一次广播
+     * @param keys 缓存的key
+     */
+    private void invalidateLocal(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        keys.forEach(localCache::evict);
+        byte[] channel = rawKey(CACHE_INVALIDATE_CHANNEL);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.publish(channel, rawKey(NODE_ID + "|" + key));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 查询本地缓存，同时记录访问用于热点探测
+     * 命中时返回副本，调用方修改返回值不会影响其他请求
+     * @param key 缓存的key
+     * @param type 数据类型
+     * @return 未命中返回null，命中空值返回 {@link LocalCache#NULL_VALUE}
+     */
+    private Object getLocal(String key, Class<?> type) {
+        hotKeyDetector.record(key);
+        Object value = localCache.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (value == LocalCache.NULL_VALUE) {
+            metrics.access(key, CacheMetrics.NULL_HIT);
+            return value;
+        }
+        if (type.isInstance(value)) {
+            metrics.access(key, CacheMetrics.LOCAL_HIT);
+            return CacheCopier.copy(value);
+        }
+        // 类型不一致，视为未命中
+        return null;
+    }
+
+    /**
+     * 写入本地缓存，未注册区域的热点key写入热点副本
+     * @param key 缓存的key
+     * @param value 缓存的数据，保存副本，之后对该对象的修改不会进入本地缓存
+     */
+    private void putLocal(String key, Object value) {
+        boolean hot = !localCache.hasRegion(key);
+        if (hot && !hotKeyDetector.isHot(key)) {
+            return;
+        }
+        Object copy = value == null ? null : CacheCopier.copy(value);
+        if (hot) {
+            localCache.putHot(key, copy);
+            return;
+        }
+        localCache.put(key, copy);
+    }
+
+    /**
+     * 读取redis中的原始数据
+     * @param key 缓存的key
+     * @return 不存在返回null，空值返回长度为0的数组
+     */
+    private byte[] getRaw(String key) {
+        byte[] rawKey = rawKey(key);
+        long begin = System.nanoTime();
+        byte[] raw = redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+        metrics.recordGet(key, System.nanoTime() - begin);
+        return raw;
+    }
+
+    /**
+     * 写入原始数据
+     * @param key 缓存的key
+     * @param value 编码后的数据
+     * @param time 过期时间，为null时不过期
+     * @param timeUnit 时间单位
+     */
+    private void setRaw(String key, byte[] value, Long time, TimeUnit timeUnit) {
+        byte[] rawKey = rawKey(key);
+        redisTemplate.execute((RedisCallback<Boolean>) connection -> time == null
+                ? connection.set(rawKey, value)
+                : connection.set(rawKey, value, Expiration.from(time, timeUnit), RedisStringCommands.SetOption.UPSERT));
+    }
+
+    private byte[] rawKey(String key) {
+        return redisTemplate.getStringSerializer().serialize(key);
+    }
+
+    /**
+     * 按数据头选择解码器，与本节点配置的写入格式无关；先识别二进制格式的魔数，json兜底
+     */
+    private CacheCodec codecOf(byte[] bytes) {
+        for (CacheCodec codec : DECODERS) {
+            if (codec.canDecode(bytes)) {
+                return codec;
+            }
+        }
+        throw new IllegalStateException("无法识别的缓存格式");
+    }
+
+    /**
+     * 编码缓存数据
+     */
+    private byte[] encode(String key, Object data) {
+        long begin = System.nanoTime();
+        byte[] bytes = cacheCodec.encode(data);
+        metrics.recordSerialization(key, System.nanoTime() - begin);
+        return bytes;
+    }
+
+    /**
+     * 编码逻辑过期数据
+     */
+    private byte[] encodeLogical(String key, RedisData<?> redisData) {
+        long begin = System.nanoTime();
+        byte[] bytes = cacheCodec.encodeLogical(redisData);
+        metrics.recordSerialization(key, System.nanoTime() - begin);
+        return bytes;
+    }
+
+    /**
+     * 解码缓存数据
+     * @return 数据格式不兼容时返回null，由调用方按未命中处理
+     */
+    private <T> T decode(String key, byte[] bytes, Class<T> type) {
+        long begin = System.nanoTime();
+        try {
+            return codecOf(bytes).decode(bytes, type);
+        } catch (RuntimeException e) {
+            log.warn("缓存解码失败 key={}", key, e);
+            return null;
+        } finally {
+            metrics.recordSerialization(key, System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * 解码逻辑过期数据
+     * @return 数据格式不兼容时返回null，由调用方按未命中处理
+     */
+    private <T> RedisData<T> decodeLogical(String key, byte[] bytes, Class<T> type) {
+        long begin = System.nanoTime();
+        try {
+            return codecOf(bytes).decodeLogical(bytes, type);
+        } catch (RuntimeException e) {
+            log.warn("缓存解码失败 key={}", key, e);
+            return null;
+        } finally {
+            metrics.recordSerialization(key, System.nanoTime() - begin);
+        }
     }
 
     /**
@@ -78,29 +323,44 @@ public class RedisClient {
      * @param <ID> 数据id类型
      */
     public <T, ID> T queryWithPassThrough(String key, Class<T> type, ID id, Function<ID, T> dbFallback, Long time, TimeUnit timeUnit) {
+        // 0. 查看本地缓存
+        Object local = getLocal(key, type);
+        if (local != null) {
+            return local == LocalCache.NULL_VALUE ? null : type.cast(local);
+        }
         // 1. 查看缓存中是否有商铺信息
-        String s = redisTemplate.opsForValue().get(key);
+        byte[] raw = getRaw(key);
         // 2.  缓存中有，返回
-        if (s != null) {
+        if (raw != null) {
             // 缓存中为空，返回空
-            if (StrUtil.isBlank(s)) {
+            if (raw.length == 0) {
+                metrics.access(key, CacheMetrics.NULL_HIT);
+                putLocal(key, null);
                 return null;
             }
-            // 缓存中有，返回
-            return JSONUtil.toBean(s, type);
+            // 缓存中有，写入本地缓存并返回；格式不兼容时按未命中处理
+            T bean = decode(key, raw, type);
+            if (bean != null) {
+                metrics.access(key, CacheMetrics.HIT);
+                putLocal(key, bean);
+                return bean;
+            }
         }
         // 3. 缓存中没有，查询数据库
+        metrics.access(key, CacheMetrics.MISS);
+        long begin = System.nanoTime();
         T byId = dbFallback.apply(id);
+        metrics.recordRebuild(key, System.nanoTime() - begin);
         // 4. 数据库中没有，返回错误 (update: 数据库中没有，将空值写入缓存(有效时间默认120Sec)，返回空)
         if (byId == null) {
             // 将空值写入缓存
-            redisTemplate.opsForValue()
-                    .set(key, "", CACHE_NULL_TTL + RandomUtil.randomLong(20, 50), TimeUnit.SECONDS);
+            setRaw(key, EMPTY, CACHE_NULL_TTL + RandomUtil.randomLong(20, 50), TimeUnit.SECONDS);
+            putLocal(key, null);
             return null;
         }
         // 5. 数据库中有，写入缓存
-        redisTemplate.opsForValue()
-                .set(key, JSONUtil.toJsonStr(byId), time, timeUnit);
+        setRaw(key, encode(key, byId), time, timeUnit);
+        putLocal(key, byId);
         // 6. 返回
         return byId;
     }
@@ -119,20 +379,44 @@ public class RedisClient {
      * @param <ID>   数据id类型
      */
     public <T, ID> T queryWithMutex(String key, String lockKey, Class<T> type, ID id, Function<ID, T> dbFallback, Long time, TimeUnit timeUnit) {
+        // 0. 查看本地缓存
+        Object local = getLocal(key, type);
+        if (local != null) {
+            return local == LocalCache.NULL_VALUE ? null : type.cast(local);
+        }
+        // 同一节点内同一个key的并发查询合并，只有一个线程访问redis和竞争锁
+        return singleFlight.execute(key, () -> loadWithMutex(key, lockKey, type, id, dbFallback, time, timeUnit));
+    }
+
+    /**
+     * 互斥锁加载缓存，由 {@link #queryWithMutex} 合并后的单个线程执行
+     */
+    private <T, ID> T loadWithMutex(String key, String lockKey, Class<T> type, ID id, Function<ID, T> dbFallback, Long time, TimeUnit timeUnit) {
         boolean isLock = false;
         T byId = null;
+        CompletableFuture<Void> watcher = null;
+        long lockBegin = 0;
         try {
             while (true) {
+                // 先监听写入通知再查询，避免查询后、等待前错过通知
+                watcher = singleFlight.watch(key);
                 // 1. 查看缓存中是否有商铺信息
-                String s = redisTemplate.opsForValue().get(key);
+                byte[] raw = getRaw(key);
                 // 2.  缓存中有，返回
-                if (s != null) {
+                if (raw != null) {
                     // 缓存中为空，返回空
-                    if (StrUtil.isBlank(s)) {
+                    if (raw.length == 0) {
+                        metrics.access(key, CacheMetrics.NULL_HIT);
+                        putLocal(key, null);
                         return null;
                     }
-                    // 缓存中有，返回
-                    return JSONUtil.toBean(s, type);
+                    // 缓存中有，写入本地缓存并返回；格式不兼容时按未命中处理
+                    T bean = decode(key, raw, type);
+                    if (bean != null) {
+                        metrics.access(key, CacheMetrics.HIT);
+                        putLocal(key, bean);
+                        return bean;
+                    }
                 }
                 // 3. 缓存中没有，尝试获取锁，然后查询数据库
                 isLock = tryLock(lockKey);
@@ -140,22 +424,48 @@ public class RedisClient {
                     // 获取锁成功，退出循环
                     break;
                 }
-                // 获取锁失败，休眠一段时间，重新查询获取
-                ThreadUtil.sleep(RandomUtil.randomLong(30, 50));
+                metrics.lockFailed(key);
+                if (lockBegin == 0) {
+                    lockBegin = System.nanoTime();
+                }
+                // 获取锁失败，等待持有锁的节点写入缓存后的广播，超时后重新查询；
+                // 线程被中断后每次等待都会立即返回，不再重试，避免反复访问redis
+                if (!singleFlight.await(watcher, CACHE_LOAD_WAIT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    throw new IllegalStateException("等待缓存重建时线程被中断 key=" + key);
+                }
+            }
+            if (lockBegin != 0) {
+                metrics.recordLockWait(key, System.nanoTime() - lockBegin);
             }
-            // 获取到了锁，查询数据库写入缓存
+            // 获取到了锁，再次查询缓存，其他节点可能刚刚写入
+            byte[] raw = getRaw(key);
+            T cached = raw == null || raw.length == 0 ? null : decode(key, raw, type);
+            if (raw != null && (raw.length == 0 || cached != null)) {
+                metrics.access(key, cached == null ? CacheMetrics.NULL_HIT : CacheMetrics.HIT);
+                putLocal(key, cached);
+                return cached;
+            }
+            // 查询数据库写入缓存
+            metrics.access(key, CacheMetrics.MISS);
+            long begin = System.nanoTime();
             byId = dbFallback.apply(id);
+            metrics.recordRebuild(key, System.nanoTime() - begin);
             // 4. 数据库中没有，将空值写入缓存(有效时间120Sec)，返回空
             if (byId == null) {
                 // 将空值写入缓存
-                redisTemplate.opsForValue()
-                        .set(key, "", CACHE_NULL_TTL + RandomUtil.randomLong(20, 50), TimeUnit.SECONDS);
+                setRaw(key, EMPTY, CACHE_NULL_TTL + RandomUtil.randomLong(20, 50), TimeUnit.SECONDS);
+                invalidateLocal(key);
+                putLocal(key, null);
                 return null;
             }
-            // 5. 数据库中有，写入缓存
-            redisTemplate.opsForValue()
-                    .set(key, JSONUtil.toJsonStr(byId), time, timeUnit);
+            // 5. 数据库中有，写入缓存，广播通知等待的节点
+            setRaw(key, encode(key, byId), time, timeUnit);
+            invalidateLocal(key);
+            putLocal(key, byId);
         } finally {
+            if (watcher != null) {
+                singleFlight.unwatch(key, watcher);
+            }
             // 7. 如果获取到了锁，释放锁
             if (isLock) {
                 unLock(lockKey);
@@ -175,9 +485,11 @@ public class RedisClient {
             TimeUnit.SECONDS,
             // 队列长度，防止任务无限积压
             new ArrayBlockingQueue<>(100),
-            // 拒绝策略：任务满直接丢弃
-            new ThreadPoolExecutor.DiscardPolicy()
+            // 拒绝策略：任务满抛出异常，由提交方放弃本次刷新
+            new ThreadPoolExecutor.AbortPolicy()
     );
+    // 本节点正在刷新的key，同一个key只提交一个刷新任务
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
 
     /**
      * 逻辑过期解决缓存击穿问题
@@ -193,20 +505,139 @@ public class RedisClient {
      * @param <ID> 数据id类型
      */
     public <T, ID> T queryWithLogicalExpire(String key, String lockKey, Class<T> type, ID id, Function<ID, T> dbFallback, Long time, TimeUnit timeUnit) {
+        // 0. 查看本地缓存，本地缓存存活时间远小于逻辑过期时间，命中直接返回
+        Object local = getLocal(key, type);
+        if (local != null && local != LocalCache.NULL_VALUE) {
+            return type.cast(local);
+        }
         // 1. 查看缓存中是否有商铺信息
-        String s = redisTemplate.opsForValue().get(key);
-        // 2. 缓存中没有，直接返回空
-        if (StrUtil.isBlank(s)) {
+        byte[] raw = getRaw(key);
+        // 2. 缓存中为空值，直接返回空
+        if (raw != null && raw.length == 0) {
+            metrics.access(key, CacheMetrics.NULL_HIT);
             return null;
         }
         // 3. 缓存中有，查看是否过期
-        RedisData redisData = JSONUtil.toBean(s, RedisData.class);
-        if (LocalDateTime.now().isAfter(redisData.getExpireTime())) {
-            // 4. 过期，创建新线程，更新数据库，
-            EXECUTOR.submit(() -> refreshCacheWithLogicalExpire(key, lockKey, type, id, dbFallback, time, timeUnit));
+        RedisData<T> redisData = raw == null ? null : decodeLogical(key, raw, type);
+        if (redisData == null) {
+            // 缓存中没有(未预热、已删除或格式不兼容)，同一节点合并后查询数据库写入缓存
+            metrics.access(key, CacheMetrics.MISS);
+            return singleFlight.execute(key, () -> loadWithLogicalExpire(key, lockKey, type, id, dbFallback, time, timeUnit));
+        }
+        metrics.access(key, CacheMetrics.HIT);
+        boolean expired = LocalDateTime.now().isAfter(redisData.getExpireTime());
+        if (shouldRefresh(redisData)) {
+            // 4. 过期或即将过期，创建新线程，更新数据库，
+            submitRefresh(key, lockKey, type, id, dbFallback, time, timeUnit, redisData.getExpireTime());
+        }
+        // 5. 返回旧数据，未过期的数据写入本地缓存
+        T bean = redisData.getData();
+        if (!expired) {
+            putLocal(key, bean);
+        }
+        return bean;
+    }
+
+    /**
+     * 缓存中没有逻辑过期数据时，查询数据库并写入，由 {@link #queryWithLogicalExpire} 合并后的单个线程执行
+     * 与刷新使用同一把锁，获取锁失败时等待持有锁的节点写入后的广播，再重新查询缓存
+     */
+    private <T, ID> T loadWithLogicalExpire(String key, String lockKey, Class<T> type, ID id, Function<ID, T> dbFallback,
+                                            Long time, TimeUnit timeUnit) {
+        boolean isLock = false;
+        CompletableFuture<Void> watcher = null;
+        try {
+            while (true) {
+                // 先监听写入通知再查询，避免查询后、等待前错过通知
+                watcher = singleFlight.watch(key);
+                byte[] raw = getRaw(key);
+                if (raw != null && raw.length == 0) {
+                    return null;
+                }
+                RedisData<T> redisData = raw == null ? null : decodeLogical(key, raw, type);
+                if (redisData != null) {
+                    return redisData.getData();
+                }
+                isLock = tryLock(lockKey);
+                if (isLock) {
+                    break;
+                }
+                metrics.lockFailed(key);
+                if (!singleFlight.await(watcher, CACHE_LOAD_WAIT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    throw new IllegalStateException("等待缓存重建时线程被中断 key=" + key);
+                }
+            }
+            // 获取到了锁，再次查询缓存，其他节点可能刚刚写入
+            byte[] raw = getRaw(key);
+            if (raw != null && raw.length == 0) {
+                return null;
+            }
+            RedisData<T> redisData = raw == null ? null : decodeLogical(key, raw, type);
+            if (redisData != null) {
+                return redisData.getData();
+            }
+            long begin = System.nanoTime();
+            T byId = dbFallback.apply(id);
+            long cost = System.nanoTime() - begin;
+            metrics.recordRebuild(key, cost);
+            long delta = TimeUnit.NANOSECONDS.toMillis(cost);
+            // 数据库中没有，将空值写入缓存，广播通知等待的节点
+            if (byId == null) {
+                setRaw(key, EMPTY, CACHE_NULL_TTL + RandomUtil.randomLong(20, 50), TimeUnit.SECONDS);
+                invalidateLocal(key);
+                putLocal(key, null);
+                return null;
+            }
+            setLogical(key, byId, delta, time, timeUnit);
+            putLocal(key, byId);
+            return byId;
+        } finally {
+            if (watcher != null) {
+                singleFlight.unwatch(key, watcher);
+            }
+            if (isLock) {
+                unLock(lockKey);
+            }
+        }
+    }
+
+    /**
+     * 是否需要刷新逻辑过期数据 (XFetch)
+     * 已过期必定刷新；未过期时按 重建耗时 * beta * -ln(random) >= 剩余时间 的概率提前刷新，
+     * 越接近过期、重建越慢，提前刷新的概率越大，通常只有一个请求在过期前触发刷新
+     * @param redisData 逻辑过期数据
+     * @return 需要刷新返回true
+     */
+    private boolean shouldRefresh(RedisData<?> redisData) {
+        long remaining = Duration.between(LocalDateTime.now(), redisData.getExpireTime()).toMillis();
+        if (remaining <= 0) {
+            return true;
+        }
+        long delta = redisData.getDelta() == null ? 0 : redisData.getDelta();
+        return delta * LOGICAL_EXPIRE_BETA * -Math.log(ThreadLocalRandom.current().nextDouble()) >= remaining;
+    }
+
+    /**
+     * 提交刷新任务，本节点同一个key同时只有一个刷新任务
+     * @param expireTime 读取到的过期时间
+     */
+    private <T, ID> void submitRefresh(String key, String lockKey, Class<T> type, ID id, Function<ID, T> dbFallback,
+                                       Long time, TimeUnit timeUnit, LocalDateTime expireTime) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        try {
+            EXECUTOR.execute(() -> {
+                try {
+                    refreshCacheWithLogicalExpire(key, lockKey, type, id, dbFallback, time, timeUnit, expireTime);
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 线程池已满，放弃本次刷新，由后续请求再次触发
+            refreshing.remove(key);
         }
-        // 5. 返回旧数据
-        return JSONUtil.toBean((JSONObject) redisData.getData(), type);
     }
 
     /**
@@ -218,10 +649,12 @@ public class RedisClient {
      * @param dbFallback 数据查询方法
      * @param time 过期时间
      * @param timeUnit 时间单位
+     * @param expireTime 触发刷新时读取到的过期时间
      * @param <T> 数据类型
      * @param <ID> 数据id类型
      */
-    private<T, ID> void refreshCacheWithLogicalExpire(String key, String lockKey, Class<T> type, ID id, Function<ID, T> dbFallback, Long time, TimeUnit timeUnit) {
+    private<T, ID> void refreshCacheWithLogicalExpire(String key, String lockKey, Class<T> type, ID id, Function<ID, T> dbFallback,
+                                                      Long time, TimeUnit timeUnit, LocalDateTime expireTime) {
         boolean isLock = false;
 
         try {
@@ -229,33 +662,36 @@ public class RedisClient {
             isLock = tryLock(lockKey);
             // 2. 获取锁失败，返回
             if (!isLock) {
+                metrics.lockFailed(key);
                 return;
             }
-            // 3. 查询redis中商铺信息是否过期
-            String s = redisTemplate.opsForValue().get(key);
-            RedisData bean = JSONUtil.toBean(s, RedisData.class);
-            if (LocalDateTime.now().isBefore(bean.getExpireTime())) {
-                // 4. 未过期，不用更新缓存，退出方法
+            // 3. 查询redis中商铺信息是否已被其他节点刷新
+            byte[] raw = getRaw(key);
+            RedisData<T> bean = raw == null || raw.length == 0 ? null : decodeLogical(key, raw, type);
+            if (bean != null && bean.getExpireTime().isAfter(expireTime)) {
+                // 4. 已刷新，不用更新缓存，退出方法
                 return;
             }
 
             // 获取锁成功，更新数据库
-            // 5. 查询数据库
+            // 5. 查询数据库，记录重建耗时
             T byId = null;
+            long begin = System.nanoTime();
             try {
                 byId = dbFallback.apply(id);
             } catch (Exception e) {
                 log.error("缓存重建失败 id={}", id, e);
             }
+            long cost = System.nanoTime() - begin;
+            metrics.recordRebuild(key, cost);
+            long delta = TimeUnit.NANOSECONDS.toMillis(cost);
             // 6. 为空，表示数据库中不存在，直接删除缓存
             if (byId == null) {
-                redisTemplate.delete(key);
+                delete(key);
                 return;
             }
             // 7. 存在，写入缓存
-            redisTemplate.opsForValue()
-                    .set(key,
-                            JSONUtil.toJsonStr(new RedisData<>(LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time)), byId)));
+            setLogical(key, byId, delta, time, timeUnit);
         } finally {
             // 8. 释放锁
             if (isLock) {
@@ -266,23 +702,248 @@ public class RedisClient {
 
 
     /**
-     * 尝试获取锁
+     * 批量查询缓存，一次MGET查询redis，未命中的数据一次查询数据库，再通过管道批量写回
+     * @param keyPrefix 缓存key前缀，key为前缀+id
+     * @param type 数据类型
+     * @param ids 数据id集合
+     * @param dbFallback 数据库批量查询方法
+     * @param idGetter 从数据中获取id的方法
+     * @param time 过期时间
+     * @param timeUnit 时间单位
+     * @return id -> 数据，数据不存在的id不在结果中
+     * @param <T> 数据类型
+     * @param <ID> 数据id类型
+     */
+    public <T, ID> Map<ID, T> queryBatchWithPassThrough(String keyPrefix, Class<T> type, Collection<ID> ids,
+                                                        Function<Collection<ID>, List<T>> dbFallback, Function<T, ID> idGetter,
+                                                        Long time, TimeUnit timeUnit) {
+        Map<ID, T> result = new LinkedHashMap<>();
+        // 1. 查看本地缓存
+        List<ID> remoteIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            Object local = getLocal(keyPrefix + id, type);
+            if (local == null) {
+                remoteIds.add(id);
+            } else if (local != LocalCache.NULL_VALUE) {
+                result.put(id, type.cast(local));
+            }
+        }
+        if (remoteIds.isEmpty()) {
+            return result;
+        }
+        // 2. 一次MGET查询redis
+        List<byte[]> values = getRawBatch(remoteIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList()));
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < remoteIds.size(); i++) {
+            ID id = remoteIds.get(i);
+            String key = keyPrefix + id;
+            byte[] raw = values == null ? null : values.get(i);
+            if (raw != null && raw.length == 0) {
+                // 空值
+                metrics.access(key, CacheMetrics.NULL_HIT);
+                putLocal(key, null);
+                continue;
+            }
+            T bean = raw == null ? null : decode(key, raw, type);
+            if (bean == null) {
+                metrics.access(key, CacheMetrics.MISS);
+                missIds.add(id);
+                continue;
+            }
+            metrics.access(key, CacheMetrics.HIT);
+            putLocal(key, bean);
+            result.put(id, bean);
+        }
+        if (missIds.isEmpty()) {
+            return result;
+        }
+        // 3. 未命中的数据一次查询数据库
+        Map<ID, T> loaded = loadBatch(keyPrefix, missIds, dbFallback, idGetter);
+        // 4. 通过管道批量写回，数据库中不存在的写入空值
+        Map<String, byte[]> toCache = new HashMap<>();
+        List<String> nullKeys = new ArrayList<>();
+        for (ID id : missIds) {
+            String key = keyPrefix + id;
+            T bean = loaded.get(id);
+            if (bean == null) {
+                nullKeys.add(key);
+            } else {
+                toCache.put(key, encode(key, bean));
+                result.put(id, bean);
+            }
+            putLocal(key, bean);
+        }
+        setRawPipelined(toCache, time, timeUnit, nullKeys);
+        return result;
+    }
+
+    /**
+     * 批量查询逻辑过期缓存，一次MGET查询redis，过期的数据异步刷新，
+     * 缓存中没有的数据一次查询数据库，再通过管道批量写回
+     * @param keyPrefix 缓存key前缀，key为前缀+id
+     * @param lockKeyPrefix 锁的key前缀，锁的key为前缀+id
+     * @param type 数据类型
+     * @param ids 数据id集合
+     * @param dbFallback 数据库批量查询方法
+     * @param idGetter 从数据中获取id的方法
+     * @param time 过期时间
+     * @param timeUnit 时间单位
+     * @return id -> 数据，数据不存在的id不在结果中
+     * @param <T> 数据类型
+     * @param <ID> 数据id类型
+     */
+    public <T, ID> Map<ID, T> queryBatchWithLogicalExpire(String keyPrefix, String lockKeyPrefix, Class<T> type, Collection<ID> ids,
+                                                          Function<Collection<ID>, List<T>> dbFallback, Function<T, ID> idGetter,
+                                                          Long time, TimeUnit timeUnit) {
+        Map<ID, T> result = new LinkedHashMap<>();
+        // 1. 查看本地缓存
+        List<ID> remoteIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            Object local = getLocal(keyPrefix + id, type);
+            if (local == null || local == LocalCache.NULL_VALUE) {
+                remoteIds.add(id);
+            } else {
+                result.put(id, type.cast(local));
+            }
+        }
+        if (remoteIds.isEmpty()) {
+            return result;
+        }
+        // 2. 一次MGET查询redis
+        List<byte[]> values = getRawBatch(remoteIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList()));
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < remoteIds.size(); i++) {
+            ID id = remoteIds.get(i);
+            String key = keyPrefix + id;
+            byte[] raw = values == null ? null : values.get(i);
+            if (raw != null && raw.length == 0) {
+                // 空值
+                metrics.access(key, CacheMetrics.NULL_HIT);
+                continue;
+            }
+            RedisData<T> redisData = raw == null ? null : decodeLogical(key, raw, type);
+            if (redisData == null) {
+                metrics.access(key, CacheMetrics.MISS);
+                missIds.add(id);
+                continue;
+            }
+            metrics.access(key, CacheMetrics.HIT);
+            if (shouldRefresh(redisData)) {
+                // 过期或即将过期，异步刷新，返回旧数据
+                submitRefresh(key, lockKeyPrefix + id, type, id,
+                        one -> loadBatch(keyPrefix, Collections.singletonList(one), dbFallback, idGetter).get(one),
+                        time, timeUnit, redisData.getExpireTime());
+            }
+            if (!LocalDateTime.now().isAfter(redisData.getExpireTime())) {
+                putLocal(key, redisData.getData());
+            }
+            result.put(id, redisData.getData());
+        }
+        if (missIds.isEmpty()) {
+            return result;
+        }
+        // 3. 缓存中没有的数据一次查询数据库，记录重建耗时
+        long begin = System.currentTimeMillis();
+        Map<ID, T> loaded = loadBatch(keyPrefix, missIds, dbFallback, idGetter);
+        long delta = System.currentTimeMillis() - begin;
+        // 4. 通过管道批量写回，数据库中不存在的写入空值
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time));
+        Map<String, byte[]> toCache = new HashMap<>();
+        List<String> nullKeys = new ArrayList<>();
+        for (ID id : missIds) {
+            T bean = loaded.get(id);
+            if (bean == null) {
+                nullKeys.add(keyPrefix + id);
+            } else {
+                toCache.put(keyPrefix + id, encodeLogical(keyPrefix + id, new RedisData<>(expireTime, bean, delta)));
+                result.put(id, bean);
+            }
+        }
+        setRawPipelined(toCache, null, null, nullKeys);
+        return result;
+    }
+
+    /**
+     * 批量查询数据库
+     * @return id -> 数据
+     */
+    private <T, ID> Map<ID, T> loadBatch(String keyPrefix, List<ID> ids,
+                                         Function<Collection<ID>, List<T>> dbFallback, Function<T, ID> idGetter) {
+        long begin = System.nanoTime();
+        List<T> list = dbFallback.apply(ids);
+        metrics.recordRebuild(keyPrefix, System.nanoTime() - begin);
+        Map<ID, T> loaded = new HashMap<>();
+        if (list != null) {
+            list.forEach(bean -> loaded.put(idGetter.apply(bean), bean));
+        }
+        return loaded;
+    }
+
+    /**
+     * 一次MGET读取多个key的原始数据
+     * @param keys 缓存的key
+     * @return 与key顺序一致，不存在的为null
+     */
+    private List<byte[]> getRawBatch(List<String> keys) {
+        byte[][] rawKeys = keys.stream().map(this::rawKey).toArray(byte[][]::new);
+        long begin = System.nanoTime();
+        List<byte[]> values = redisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+        // 按前缀记录一次，批量查询的key通常属于同一前缀
+        metrics.recordGet(keys.get(0), System.nanoTime() - begin);
+        return values;
+    }
+
+    /**
+     * 通过管道批量写入原始数据
+     * @param values key -> 编码后的数据
+     * @param time 过期时间，为null时不过期
+     * @param timeUnit 时间单位
+     * @param nullKeys 需要写入空值的key
+     */
+    private void setRawPipelined(Map<String, byte[]> values, Long time, TimeUnit timeUnit, Collection<String> nullKeys) {
+        if (values.isEmpty() && nullKeys.isEmpty()) {
+            return;
+        }
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> {
+                if (time == null) {
+                    connection.set(rawKey(key), value);
+                } else {
+                    connection.set(rawKey(key), value, Expiration.from(time, timeUnit), RedisStringCommands.SetOption.UPSERT);
+                }
+            });
+            for (String key : nullKeys) {
+                connection.set(rawKey(key), EMPTY,
+                        Expiration.seconds(CACHE_NULL_TTL + RandomUtil.randomLong(20, 50)), RedisStringCommands.SetOption.UPSERT);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 尝试获取重建锁，持有期间由看门狗续期，查询数据库较慢时锁不会提前过期
      *
      * @param key 锁的key
      * @return 获取锁成功返回true，获取锁失败返回false
      */
     private boolean tryLock(String key) {
-        Boolean flag = redisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+        return simpleRedisLock.tryLock(lockName(key));
     }
 
     /**
-     * 释放锁
+     * 释放锁，完全释放时广播，等待该锁的线程立即重试
      *
      * @param key 锁的key
      */
     private void unLock(String key) {
-        redisTemplate.delete(key);
+        simpleRedisLock.unLock(lockName(key));
+    }
+
+    /**
+     * 锁的key去掉 LOCK_PREFIX 即为 {@link SimpleRedisLock} 的锁名称
+     */
+    private static String lockName(String key) {
+        return key.startsWith(LOCK_PREFIX) ? key.substring(LOCK_PREFIX.length()) : key;
     }
 
     // 时间戳
@@ -292,22 +953,20 @@ public class RedisClient {
     private static final int COUNT_BITS = 32;
 
     /**
-     * 获取唯一id
+     * 获取唯一id，高位为秒级时间戳，低32位为当天的序列号
+     * 序列号按号段从redis租用，本地发放，不再每次访问redis
      * @param keyPrefix key前缀
      * @return 唯一id
      */
     public long getUniqueId(String keyPrefix) {
         // 1. 获取当前时间戳
-        long nowStamp = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
-        long timestamp = nowStamp - BEGIN_TIMESTAMP;
-
-        // 2. 拼接 自增key
-        String key = "incr:" + keyPrefix + ":" + DateTimeFormatter.ofPattern("yyyy:MM:dd").format(LocalDateTime.now());
+        LocalDateTime now = LocalDateTime.now();
+        long timestamp = now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
 
-        // 3. 执行自增，获取自增后的值
-        long incr = redisTemplate.opsForValue().increment(key);
+        // 2. 获取当天的序列号
+        long sequence = idSegmentAllocator.next(keyPrefix, now.toLocalDate());
 
-        return timestamp << COUNT_BITS | incr;
+        return timestamp << COUNT_BITS | sequence;
     }
 
 }
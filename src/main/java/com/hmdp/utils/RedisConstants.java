@@ -5,23 +5,70 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 5L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 30L;
+    public static final Long LOGIN_USER_REFRESH_THRESHOLD = 20L;
+    public static final Integer LOCAL_SESSION_SIZE = 10000;
+    public static final Long LOCAL_SESSION_TTL = 60L;
+    public static final String LOGIN_REFRESH_KEY = "login:refresh:";
+    public static final String LOGIN_SESSION_KEY = "login:session:";
+    public static final String LOGIN_REVOKED_KEY = "login:revoked";
 
     public static final Long CACHE_NULL_TTL = 120L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final Integer LOCAL_CACHE_SHOP_SIZE = 1000;
+    public static final Long LOCAL_CACHE_SHOP_TTL = 60L;
+    public static final Integer CACHE_COMPRESS_THRESHOLD = 1024;
+    public static final Double HOT_KEY_SAMPLE_RATE = 0.1;
+    public static final Long HOT_KEY_QPS = 500L;
+    public static final Integer HOT_KEY_LOCAL_SIZE = 1000;
+    public static final Long HOT_KEY_LOCAL_TTL = 5L;
+    public static final String CACHE_WARM_UP_KEY = "cache:warmup:shop";
+    public static final Integer WARM_UP_BATCH_SIZE = 500;
+    public static final Long WARM_UP_REBUILD_DELTA = 50L;
+
+    public static final String BLOOM_FILTER_CHANNEL = "bloom:add";
+    public static final Long BLOOM_EXPECTED_INSERTIONS = 1000000L;
+    public static final Double BLOOM_FPP = 0.01;
+
     public static final String LOCK_PREFIX = "lock:";
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final Long LOCK_WATCHDOG_TTL = 30L;
+    public static final String LOCK_RELEASE_CHANNEL = "lock:release";
     public static final Long THREAD_SLEEP_TIME = 20L;
+    public static final Long CACHE_LOAD_WAIT_TIMEOUT = 500L;
+    public static final Double LOGICAL_EXPIRE_BETA = 1.0;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final Long SECKILL_SHARDS_LOCAL_TTL = 60L;
+    public static final Long SECKILL_SHARDS_MISS_TTL = 1L;
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    public static final Long SECKILL_PRELOAD_LEAD = 10L;
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_BUDGET_KEY = "seckill:budget:";
+    public static final String SECKILL_TICKET_KEY = "seckill:ticket:";
+    public static final Long SECKILL_TICKET_TTL = 10L;
+    public static final String SECKILL_RESULT_KEY = "seckill:result:";
+    public static final Long SECKILL_RESULT_TTL = 10L;
+    public static final String SECKILL_RESULT_CHANNEL = "seckill:result";
+    public static final String ORDER_CONSUMED_KEY = "order:consumed:";
+    public static final Long ORDER_CONSUMED_TTL = 60L;
+    public static final String ID_INCR_KEY = "incr:";
+    public static final Long ID_SEGMENT_STEP = 1000L;
+    public static final Double ID_SEGMENT_PREFETCH_RATIO = 0.8;
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
 
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shop:type";
     public static final Long CACHE_SHOP_TYPE_TTL = 30L;
 }
@@ -0,0 +1,307 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillTicketDTO;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀准入控制
+ * 每张优惠券每秒的全局放行数由redis协调：按时间窗口划分配额，各节点每次从redis租一批令牌，在本地扣减，
+ * 只有本地令牌用完时才访问redis；
+ * 超过配额的请求进入本地排队，立即返回排队凭证，由后台线程在有令牌时依次秒杀并把结果写入redis，
+ * 客户端凭凭证到任意节点轮询结果，tomcat线程不会被排队的请求占住；
+ * 调用前需要先经过布隆过滤器和售罄判断，空闲的优惠券定期清理，不存在的id不会留在本地
+ * @author meidaia
+ */
+@Slf4j
+@Component
+public class SeckillAdmission {
+    // 时间窗口，窗口越小放行越平滑
+    private static final long WINDOW_MILLIS = 100;
+    // 超过这个时间没有请求的优惠券，删除本地令牌和空的排队
+    private static final long IDLE_MILLIS = 60000;
+
+    private static final DefaultRedisScript<Long> BUDGET_SCRIPT;
+    static {
+        BUDGET_SCRIPT = new DefaultRedisScript<>();
+        BUDGET_SCRIPT.setResultType(Long.class);
+        BUDGET_SCRIPT.setScriptSource(new ResourceScriptSource(new ClassPathResource("seckill_budget.lua")));
+    }
+
+    // 处理排队请求的线程池
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            4,
+            4,
+            60L,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(256),
+            r -> {
+                Thread thread = new Thread(r, "seckill-waiting-room");
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy()
+    );
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Autowired
+    private IVoucherOrderService voucherOrderService;
+    @Autowired
+    private SoldOutRegistry soldOutRegistry;
+
+    // 每张优惠券每秒的全局放行数
+    @Value("${hmdp.seckill.admission.rate:2000}")
+    private int rate;
+    // 每次从redis租用的令牌数
+    @Value("${hmdp.seckill.admission.lease:20}")
+    private int lease;
+    // 部署的节点数，redis不可用时每个节点按 rate/nodes 放行
+    @Value("${hmdp.seckill.admission.nodes:1}")
+    private int nodes;
+    // 每张优惠券本节点最多排队的请求数
+    @Value("${hmdp.seckill.admission.queue-size:10000}")
+    private int queueSize;
+
+    // 优惠券id -> 本地令牌
+    private final Map<Long, Budget> budgets = new ConcurrentHashMap<>();
+    // 优惠券id -> 排队的请求
+    private final Map<Long, Room> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * 请求是否可以直接秒杀
+     * 已售罄的直接放行，由秒杀逻辑在本地拒绝；有人排队时新请求也要排队，保证先来先得
+     * @param voucherId 优惠券id
+     */
+    public boolean tryAdmit(Long voucherId) {
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return true;
+        }
+        Room room = rooms.get(voucherId);
+        if (room != null && room.size.get() > 0) {
+            return false;
+        }
+        return tryAcquire(voucherId);
+    }
+
+    /**
+     * 排队
+     * @param voucherId 优惠券id
+     * @param userId 用户id
+     * @return 排队凭证，队列已满时返回null
+     */
+    public SeckillTicketDTO enqueue(Long voucherId, Long userId) {
+        long now = System.currentTimeMillis();
+        Room room = rooms.compute(voucherId, (id, existing) -> {
+            Room r = existing == null ? new Room() : existing;
+            r.lastAccess = now;
+            return r;
+        });
+        String ticketId = IdUtil.simpleUUID();
+        // 同一用户重复点击，返回已有的凭证
+        String existing = room.users.putIfAbsent(userId, ticketId);
+        if (existing != null) {
+            SeckillTicketDTO ticket = queryTicket(existing);
+            if (ticket != null) {
+                return ticket;
+            }
+            return new SeckillTicketDTO().setTicket(existing).setVoucherId(voucherId).setUserId(userId)
+                    .setStatus(SeckillTicketDTO.WAITING);
+        }
+        int position = room.size.getAndIncrement();
+        if (position >= queueSize) {
+            room.size.decrementAndGet();
+            room.users.remove(userId, ticketId);
+            return null;
+        }
+        SeckillTicketDTO ticket = new SeckillTicketDTO()
+                .setTicket(ticketId)
+                .setVoucherId(voucherId)
+                .setUserId(userId)
+                .setStatus(SeckillTicketDTO.WAITING)
+                .setPosition(position);
+        save(ticket);
+        room.queue.offer(ticket);
+        return ticket;
+    }
+
+    /**
+     * 查询排队结果
+     * @param ticketId 凭证id
+     * @return 凭证不存在或已过期时返回null
+     */
+    public SeckillTicketDTO queryTicket(String ticketId) {
+        String json = redisTemplate.opsForValue().get(SECKILL_TICKET_KEY + ticketId);
+        return StrUtil.isBlank(json) ? null : JSONUtil.toBean(json, SeckillTicketDTO.class);
+    }
+
+    /**
+     * 按令牌依次处理排队的请求，售罄后剩余的请求直接失败
+     */
+    @Scheduled(fixedDelay = 20)
+    public void drain() {
+        rooms.forEach((voucherId, room) -> {
+            while (room.size.get() > 0) {
+                boolean soldOut = soldOutRegistry.isSoldOut(voucherId);
+                if (!soldOut && (EXECUTOR.getQueue().remainingCapacity() == 0 || !tryAcquire(voucherId))) {
+                    break;
+                }
+                SeckillTicketDTO ticket = room.queue.poll();
+                if (ticket == null) {
+                    break;
+                }
+                room.size.decrementAndGet();
+                if (soldOut) {
+                    complete(room, ticket, Result.fail("库存不足"));
+                    continue;
+                }
+                EXECUTOR.execute(() -> {
+                    Result result;
+                    try {
+                        result = voucherOrderService.seckillVoucher(ticket.getVoucherId(), ticket.getUserId());
+                    } catch (Exception e) {
+                        log.error("排队秒杀失败 ticket={}", ticket.getTicket(), e);
+                        result = Result.fail("系统繁忙，请稍后再试");
+                    }
+                    complete(room, ticket, result);
+                });
+            }
+        });
+    }
+
+    /**
+     * 删除空闲的本地令牌和没有排队请求的排队
+     */
+    @Scheduled(fixedRate = 60000)
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        budgets.keySet().forEach(voucherId -> budgets.computeIfPresent(voucherId,
+                (id, budget) -> budget.isIdle(now) ? null : budget));
+        rooms.keySet().forEach(voucherId -> rooms.computeIfPresent(voucherId,
+                (id, room) -> room.size.get() == 0 && room.users.isEmpty() && now - room.lastAccess > IDLE_MILLIS
+                        ? null : room));
+    }
+
+    private void complete(Room room, SeckillTicketDTO ticket, Result result) {
+        if (BooleanUtil.isTrue(result.getSuccess())) {
+            ticket.setStatus(SeckillTicketDTO.SUCCESS).setOrderId((Long) result.getData());
+        } else {
+            ticket.setStatus(SeckillTicketDTO.FAILED).setMessage(result.getErrorMsg());
+        }
+        save(ticket);
+        room.users.remove(ticket.getUserId(), ticket.getTicket());
+    }
+
+    private void save(SeckillTicketDTO ticket) {
+        redisTemplate.opsForValue().set(SECKILL_TICKET_KEY + ticket.getTicket(), JSONUtil.toJsonStr(ticket),
+                SECKILL_TICKET_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 获取一个令牌，本地没有时从redis租用
+     */
+    private boolean tryAcquire(Long voucherId) {
+        return budgets.computeIfAbsent(voucherId, Budget::new).tryAcquire();
+    }
+
+    /**
+     * 单张优惠券在本节点的令牌
+     */
+    private class Budget {
+        private final Long voucherId;
+        // 当前时间窗口
+        private long window = -1;
+        // 本地剩余令牌
+        private int available;
+        // 当前窗口本节点已租到的令牌数
+        private int leased;
+        // 当前窗口的全局配额已用完
+        private boolean exhausted;
+
+        Budget(Long voucherId) {
+            this.voucherId = voucherId;
+        }
+
+        synchronized boolean tryAcquire() {
+            long now = System.currentTimeMillis() / WINDOW_MILLIS;
+            if (now != window) {
+                // 进入新窗口，上个窗口剩余的令牌作废
+                window = now;
+                available = 0;
+                leased = 0;
+                exhausted = false;
+            }
+            if (available > 0) {
+                available--;
+                return true;
+            }
+            if (exhausted) {
+                return false;
+            }
+            int granted = lease(now);
+            if (granted <= 0) {
+                exhausted = true;
+                return false;
+            }
+            leased += granted;
+            available = granted - 1;
+            return true;
+        }
+
+        synchronized boolean isIdle(long nowMillis) {
+            return (nowMillis / WINDOW_MILLIS - window) * WINDOW_MILLIS > IDLE_MILLIS;
+        }
+
+        private int lease(long window) {
+            long limit = Math.max(1, rate * WINDOW_MILLIS / 1000);
+            try {
+                Long granted = redisTemplate.execute(BUDGET_SCRIPT,
+                        Collections.singletonList(SECKILL_BUDGET_KEY + voucherId + ":" + window),
+                        String.valueOf(limit), String.valueOf(lease), String.valueOf(WINDOW_MILLIS * 2));
+                return granted == null ? 0 : granted.intValue();
+            } catch (Exception e) {
+                // redis不可用时按本节点分到的配额放行，本窗口已租到的令牌也计入，用完后等下一个窗口
+                log.warn("租用秒杀令牌失败：{}", e.getMessage());
+                long share = Math.max(1, limit / Math.max(1, nodes));
+                return (int) Math.max(0, Math.min(lease, share - leased));
+            }
+        }
+    }
+
+    /**
+     * 单张优惠券在本节点的排队
+     */
+    private static class Room {
+        private final Queue<SeckillTicketDTO> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        // 排队中的用户id -> 凭证id
+        private final Map<Long, String> users = new ConcurrentHashMap<>();
+        // 最近一次排队的时间
+        private volatile long lastAccess;
+    }
+}
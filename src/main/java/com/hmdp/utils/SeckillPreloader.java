@@ -0,0 +1,47 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_PRELOAD_LEAD;
+
+/**
+ * 秒杀券预加载
+ * 每分钟查询一次即将开始和进行中的秒杀券，把库存和秒杀时间写入redis，秒杀请求不再访问数据库；
+ * redis中已有库存的不覆盖，多个节点同时执行也只会写入一次
+ * @author meidaia
+ */
+@Slf4j
+@Component
+public class SeckillPreloader {
+    @Autowired
+    private ISeckillVoucherService seckillVoucherService;
+    @Autowired
+    private SeckillStock seckillStock;
+
+    @Scheduled(fixedRate = 60000)
+    public void preload() {
+        LocalDateTime now = LocalDateTime.now();
+        List<SeckillVoucher> vouchers = seckillVoucherService.lambdaQuery()
+                .le(SeckillVoucher::getBeginTime, now.plusMinutes(SECKILL_PRELOAD_LEAD))
+                .gt(SeckillVoucher::getEndTime, now)
+                .list();
+        for (SeckillVoucher voucher : vouchers) {
+            try {
+                if (seckillStock.preload(voucher.getVoucherId(), voucher.getStock(),
+                        voucher.getBeginTime(), voucher.getEndTime())) {
+                    log.info("预加载秒杀券 {}，库存 {}", voucher.getVoucherId(), voucher.getStock());
+                }
+            } catch (Exception e) {
+                log.error("预加载秒杀券 {} 失败", voucher.getVoucherId(), e);
+            }
+        }
+    }
+}
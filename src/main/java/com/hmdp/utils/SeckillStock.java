@@ -0,0 +1,273 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀库存
+ * 未分片时库存和已购用户各一个key，由 seckill.lua 一次完成校验和扣减；
+ * 分片时库存平均拆分到N个key，每个分片的库存key和订单key使用相同的hash tag {优惠券id:分片}，
+ * 不同分片可以落在redis集群的不同节点上。
+ * 用户按id固定路由到所属分片，已购用户只记录在所属分片，保证跨分片的一人一单；
+ * 所属分片库存不足时依次到其他分片扣减，扣减成功后才在所属分片记录已购用户，记录失败时归还库存。
+ * 秒杀开始、结束时间写入优惠券信息hash(分片时每个分片一份)，由脚本按redis服务器时间校验
+ * @author meidaia
+ */
+@Slf4j
+@Component
+public class SeckillStock {
+    // 扣减结果
+    public static final long SUCCESS = 0;
+    public static final long SOLD_OUT = 1;
+    public static final long DUPLICATE = 2;
+    // 未开始，库存还没有写入时也返回该结果
+    public static final long NOT_STARTED = 3;
+    public static final long ENDED = 4;
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT = script("seckill.lua");
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_SCRIPT = script("seckill_shard.lua");
+    private static final DefaultRedisScript<Long> STOCK_DEDUCT_SCRIPT = script("stock_deduct.lua");
+    private static final DefaultRedisScript<Long> STOCK_RELEASE_SCRIPT = script("stock_release.lua");
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    // 优惠券id -> 分片数，按过期时间重新从redis读取
+    private final Map<Long, Shards> shards = new ConcurrentHashMap<>();
+
+    private static DefaultRedisScript<Long> script(String path) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setResultType(Long.class);
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource(path)));
+        return script;
+    }
+
+    /**
+     * 写入库存和秒杀时间
+     * @param voucherId 优惠券id
+     * @param stock 库存
+     * @param shardCount 分片数，为空或小于等于1时不分片
+     * @param beginTime 开始时间
+     * @param endTime 结束时间
+     */
+    public void init(Long voucherId, int stock, Integer shardCount, LocalDateTime beginTime, LocalDateTime endTime) {
+        int n = shardCount == null ? 1 : Math.max(1, Math.min(shardCount, stock));
+        Map<String, String> window = window(beginTime, endTime);
+        if (n == 1) {
+            putWindow(SECKILL_VOUCHER_KEY + voucherId, window);
+            redisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucherId, String.valueOf(stock));
+        } else {
+            // 先写分片数，再按分片写入时间和库存，余数分给前面的分片；各分片不在同一个slot，不能用MSET
+            redisTemplate.opsForValue().set(SECKILL_SHARDS_KEY + voucherId, String.valueOf(n));
+            for (int i = 0; i < n; i++) {
+                putWindow(voucherKey(voucherId, i), window);
+                redisTemplate.opsForValue().set(stockKey(voucherId, i), String.valueOf(stock / n + (i < stock % n ? 1 : 0)));
+            }
+        }
+        shards.put(voucherId, new Shards(n, SECKILL_SHARDS_LOCAL_TTL));
+    }
+
+    /**
+     * 预加载库存和秒杀时间，不分片；库存已存在(已加载或已开始扣减)时不覆盖
+     * @param voucherId 优惠券id
+     * @param stock 数据库中的库存
+     * @param beginTime 开始时间
+     * @param endTime 结束时间
+     * @return 是否写入
+     */
+    public boolean preload(Long voucherId, int stock, LocalDateTime beginTime, LocalDateTime endTime) {
+        if (BooleanUtil.isTrue(redisTemplate.hasKey(SECKILL_SHARDS_KEY + voucherId))) {
+            return false;
+        }
+        // 先写时间再写库存，库存写入成功前脚本按未开始处理；时间以数据库为准，每次都覆盖
+        putWindow(SECKILL_VOUCHER_KEY + voucherId, window(beginTime, endTime));
+        return BooleanUtil.isTrue(redisTemplate.opsForValue().setIfAbsent(SECKILL_STOCK_KEY + voucherId, String.valueOf(stock)));
+    }
+
+    /**
+     * 扣减库存并记录已购用户
+     * @param voucherId 优惠券id
+     * @param userId 用户id
+     * @return {@link #SUCCESS}、{@link #SOLD_OUT}、{@link #DUPLICATE}、{@link #NOT_STARTED} 或 {@link #ENDED}
+     */
+    public long deduct(Long voucherId, Long userId) {
+        int n = shardsOf(voucherId);
+        if (n == 1) {
+            Long result = redisTemplate.execute(SECKILL_SCRIPT, Collections.emptyList(),
+                    voucherId.toString(), userId.toString());
+            return result == null ? SOLD_OUT : result;
+        }
+        // 1. 在所属分片校验一人一单并扣减
+        int home = (int) Math.floorMod(userId, (long) n);
+        String orderKey = orderKey(voucherId, home);
+        Long result = redisTemplate.execute(SECKILL_SHARD_SCRIPT,
+                Arrays.asList(stockKey(voucherId, home), orderKey, voucherKey(voucherId, home)), userId.toString());
+        if (result == null || result != SOLD_OUT) {
+            return result == null ? SOLD_OUT : result;
+        }
+        // 2. 所属分片库存不足，从随机位置开始依次到其他分片扣减，避免都集中到下一个分片
+        int offset = ThreadLocalRandom.current().nextInt(1, n);
+        for (int i = 0; i < n - 1; i++) {
+            int shard = (home + 1 + (offset + i) % (n - 1)) % n;
+            Long deducted = redisTemplate.execute(STOCK_DEDUCT_SCRIPT,
+                    Collections.singletonList(stockKey(voucherId, shard)));
+            if (deducted != null && deducted == 1) {
+                return record(voucherId, userId, orderKey, shard);
+            }
+        }
+        return SOLD_OUT;
+    }
+
+    /**
+     * 从其他分片扣减成功后记录已购用户，重复下单或记录失败时把库存归还到扣减的分片
+     * 进程在扣减和记录之间退出时只会少卖一个库存，不会出现记录了用户却没有订单
+     */
+    private long record(Long voucherId, Long userId, String orderKey, int shard) {
+        boolean recorded = false;
+        try {
+            Long added = redisTemplate.opsForSet().add(orderKey, userId.toString());
+            recorded = added != null && added == 1;
+            return recorded ? SUCCESS : DUPLICATE;
+        } finally {
+            if (!recorded) {
+                redisTemplate.opsForValue().increment(stockKey(voucherId, shard));
+            }
+        }
+    }
+
+    /**
+     * 回滚一次成功的扣减，订单没有交给后台创建时调用
+     * 分片时库存归还到用户所属分片，总库存不变
+     * @param voucherId 优惠券id
+     * @param userId 用户id
+     * @return 是否回滚
+     */
+    public boolean release(Long voucherId, Long userId) {
+        int n = shardsOf(voucherId);
+        List<String> keys;
+        if (n == 1) {
+            keys = Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId);
+        } else {
+            int home = (int) Math.floorMod(userId, (long) n);
+            keys = Arrays.asList(stockKey(voucherId, home), orderKey(voucherId, home));
+        }
+        Long released = redisTemplate.execute(STOCK_RELEASE_SCRIPT, keys, userId.toString());
+        return released != null && released == 1;
+    }
+
+    /**
+     * 查询剩余库存，分片时为所有分片之和
+     * @param voucherId 优惠券id
+     * @return 库存未写入时返回null
+     */
+    public Long remaining(Long voucherId) {
+        int n = shardsOf(voucherId);
+        List<String> keys = new ArrayList<>(n);
+        if (n == 1) {
+            keys.add(SECKILL_STOCK_KEY + voucherId);
+        } else {
+            for (int i = 0; i < n; i++) {
+                keys.add(stockKey(voucherId, i));
+            }
+        }
+        Long total = null;
+        for (String key : keys) {
+            // 各分片不在同一个slot，逐个查询
+            String stock = redisTemplate.opsForValue().get(key);
+            if (stock != null) {
+                // 已售罄的分片可能为负数，按0计算
+                total = (total == null ? 0 : total) + Math.max(0, Long.parseLong(stock));
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 秒杀是否已结束，按本节点时间判断，只用于清理本地状态
+     * @param voucherId 优惠券id
+     * @return 没有结束时间时返回false
+     */
+    public boolean isEnded(Long voucherId) {
+        String key = shardsOf(voucherId) == 1 ? SECKILL_VOUCHER_KEY + voucherId : voucherKey(voucherId, 0);
+        Object end = redisTemplate.opsForHash().get(key, "end");
+        return end != null && Long.parseLong(end.toString()) < System.currentTimeMillis();
+    }
+
+    /**
+     * 获取分片数，本地没有或已过期时从redis读取，没有分片记录的为1
+     * 没有分片记录可能是其他节点还没有写入，只缓存很短的时间，避免一直按未分片扣减
+     */
+    private int shardsOf(Long voucherId) {
+        Shards cached = shards.get(voucherId);
+        if (cached != null && cached.expireAt > System.currentTimeMillis()) {
+            return cached.n;
+        }
+        String value = redisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + voucherId);
+        Shards loaded = value == null ? new Shards(1, SECKILL_SHARDS_MISS_TTL)
+                : new Shards(Integer.parseInt(value), SECKILL_SHARDS_LOCAL_TTL);
+        shards.put(voucherId, loaded);
+        return loaded.n;
+    }
+
+    private Map<String, String> window(LocalDateTime beginTime, LocalDateTime endTime) {
+        Map<String, String> window = new HashMap<>();
+        if (beginTime != null) {
+            window.put("begin", String.valueOf(beginTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()));
+        }
+        if (endTime != null) {
+            window.put("end", String.valueOf(endTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()));
+        }
+        return window;
+    }
+
+    private void putWindow(String key, Map<String, String> window) {
+        if (!window.isEmpty()) {
+            redisTemplate.opsForHash().putAll(key, window);
+        }
+    }
+
+    private static String voucherKey(Long voucherId, int shard) {
+        return SECKILL_VOUCHER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    private static String stockKey(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    private static String orderKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 本地缓存的分片数
+     */
+    private static class Shards {
+        private final int n;
+        private final long expireAt;
+
+        private Shards(int n, long ttlSeconds) {
+            this.n = n;
+            this.expireAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds);
+        }
+    }
+}
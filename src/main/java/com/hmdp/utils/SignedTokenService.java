@@ -0,0 +1,224 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.TokenDTO;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 签名登录凭证
+ * 访问凭证为 base64url(用户信息+会话id+过期时间).base64url(HMAC-SHA256签名)，校验只需要本地计算，不访问redis；
+ * 访问凭证有效期较短，过期后用一次性的刷新凭证换取新凭证，代替redis会话的滑动过期；
+ * 一次登录为一个会话，刷新时会话id不变，redis中记录会话当前的刷新凭证，登出时由服务端删除；
+ * 登出的会话id记录在redis的有序集合中(分数为过期时间)，各节点定期同步到本地，过期后从集合中移除
+ * @author meidaia
+ */
+@Slf4j
+@Component
+public class SignedTokenService {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private static final DefaultRedisScript<Long> SESSION_REVOKE_SCRIPT;
+    static {
+        SESSION_REVOKE_SCRIPT = new DefaultRedisScript<>();
+        SESSION_REVOKE_SCRIPT.setLocation(new ClassPathResource("session_revoke.lua"));
+        SESSION_REVOKE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    // 登录凭证模式，redis/signed
+    @Value("${hmdp.session.mode:redis}")
+    private String mode;
+    // 签名密钥，所有节点必须一致
+    @Value("${hmdp.session.secret:}")
+    private String secret;
+    // 访问凭证有效期，单位秒
+    @Value("${hmdp.session.access-ttl:900}")
+    private long accessTtl;
+    // 刷新凭证有效期，单位秒
+    @Value("${hmdp.session.refresh-ttl:604800}")
+    private long refreshTtl;
+
+    private SecretKeySpec key;
+    private ThreadLocal<Mac> macs;
+    // 已登出且访问凭证未过期的会话id
+    private volatile Set<String> revoked = Collections.emptySet();
+
+    @PostConstruct
+    public void init() {
+        if (StrUtil.isBlank(secret)) {
+            // 随机密钥在重启后或其他节点上无法校验凭证，签名模式下不允许
+            if ("signed".equals(mode)) {
+                throw new IllegalStateException("hmdp.session.mode=signed 时必须配置 hmdp.session.secret");
+            }
+            // redis会话模式不签发签名凭证，随机密钥只用于拒绝伪造的凭证
+            secret = RandomUtil.randomString(32);
+        }
+        key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        syncRevoked();
+    }
+
+    /**
+     * 登录，创建会话并签发访问凭证和刷新凭证
+     * @param user 登录用户
+     */
+    public TokenDTO issue(UserDTO user) {
+        String sid = UUID.randomUUID().toString(true);
+        TokenDTO tokenDTO = issue(user, sid);
+        redisTemplate.opsForValue().set(LOGIN_SESSION_KEY + sid, tokenDTO.getRefreshToken(), refreshTtl, TimeUnit.SECONDS);
+        return tokenDTO;
+    }
+
+    /**
+     * 用刷新凭证换取新的凭证，旧的刷新凭证失效
+     * @param refreshToken 刷新凭证
+     * @return 刷新凭证不存在、已过期、已使用或会话已登出时返回null
+     */
+    public TokenDTO refresh(String refreshToken) {
+        String key = LOGIN_REFRESH_KEY + refreshToken;
+        String json = redisTemplate.opsForValue().get(key);
+        // 并发使用同一个刷新凭证时只有删除成功的一方能换到新凭证
+        if (StrUtil.isBlank(json) || !Boolean.TRUE.equals(redisTemplate.delete(key))) {
+            return null;
+        }
+        JSONObject session = JSONUtil.parseObj(json);
+        String sid = session.getStr("sid");
+        TokenDTO tokenDTO = issue(session.toBean(UserDTO.class), sid);
+        // 先写入新的刷新凭证再更新会话，会话已被登出时不再生效
+        if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfPresent(
+                LOGIN_SESSION_KEY + sid, tokenDTO.getRefreshToken(), refreshTtl, TimeUnit.SECONDS))) {
+            redisTemplate.delete(LOGIN_REFRESH_KEY + tokenDTO.getRefreshToken());
+            return null;
+        }
+        return tokenDTO;
+    }
+
+    /**
+     * 校验访问凭证，只在本地计算
+     * @param token 访问凭证
+     * @return 签名错误、已过期或已登出时返回null
+     */
+    public UserDTO verify(String token) {
+        JSONObject claims = parse(token);
+        if (claims == null || claims.getLong("exp", 0L) < System.currentTimeMillis()
+                || revoked.contains(claims.getStr("sid"))) {
+            return null;
+        }
+        return claims.toBean(UserDTO.class);
+    }
+
+    /**
+     * 登出，删除会话和会话当前的刷新凭证；
+     * 会话的所有访问凭证立即在本节点失效，其他节点在下次同步后失效
+     * @param token 访问凭证
+     */
+    public void revoke(String token) {
+        JSONObject claims = parse(token);
+        if (claims == null) {
+            return;
+        }
+        String sid = claims.getStr("sid");
+        redisTemplate.execute(SESSION_REVOKE_SCRIPT, Collections.singletonList(LOGIN_SESSION_KEY + sid), LOGIN_REFRESH_KEY);
+        // 会话中最后签发的访问凭证也在一个有效期后过期
+        long expireAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(accessTtl);
+        redisTemplate.opsForZSet().add(LOGIN_REVOKED_KEY, sid, expireAt);
+        Set<String> next = new HashSet<>(revoked);
+        next.add(sid);
+        revoked = next;
+    }
+
+    /**
+     * 签发访问凭证和刷新凭证，刷新凭证中记录会话id
+     */
+    private TokenDTO issue(UserDTO user, String sid) {
+        long expireAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(accessTtl);
+        JSONObject claims = JSONUtil.parseObj(user)
+                .set("sid", sid)
+                .set("exp", expireAt);
+        String payload = ENCODER.encodeToString(claims.toString().getBytes(StandardCharsets.UTF_8));
+        String token = payload + "." + ENCODER.encodeToString(sign(payload));
+
+        String refreshToken = RandomUtil.randomString(32);
+        String session = JSONUtil.parseObj(user).set("sid", sid).toString();
+        redisTemplate.opsForValue().set(LOGIN_REFRESH_KEY + refreshToken, session, refreshTtl, TimeUnit.SECONDS);
+        return new TokenDTO().setToken(token).setRefreshToken(refreshToken).setExpiresIn(accessTtl);
+    }
+
+    /**
+     * 同步登出的凭证id，移除已过期的
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void syncRevoked() {
+        try {
+            long now = System.currentTimeMillis();
+            redisTemplate.opsForZSet().removeRangeByScore(LOGIN_REVOKED_KEY, 0, now);
+            Set<String> ids = redisTemplate.opsForZSet().rangeByScore(LOGIN_REVOKED_KEY, now, Double.POSITIVE_INFINITY);
+            revoked = ids == null ? Collections.emptySet() : new HashSet<>(ids);
+        } catch (Exception e) {
+            // 同步失败时沿用上次的结果
+            log.warn("同步登出凭证失败：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 校验签名并解析凭证内容，不校验有效期
+     */
+    private JSONObject parse(String token) {
+        int index = token.indexOf('.');
+        if (index <= 0) {
+            return null;
+        }
+        String payload = token.substring(0, index);
+        try {
+            if (!MessageDigest.isEqual(sign(payload), DECODER.decode(token.substring(index + 1)))) {
+                return null;
+            }
+            return JSONUtil.parseObj(new String(DECODER.decode(payload), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            // base64或json格式错误
+            return null;
+        }
+    }
+
+    private byte[] sign(String payload) {
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+}
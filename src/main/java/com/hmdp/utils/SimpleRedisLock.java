@@ -1,55 +1,243 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
 
 import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import static com.hmdp.utils.RedisConstants.LOCK_PREFIX;
+import java.util.concurrent.TimeoutException;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * 简单分布式锁
+ * 锁为hash(线程标识 -> 重入次数)，同一线程可以重入；
+ * 不指定有效期时由看门狗定期续期，持有期间不会过期，进程退出后最多 LOCK_WATCHDOG_TTL 秒自动释放；
+ * 完全释放时在 LOCK_RELEASE_CHANNEL 广播，等待的线程收到后立即重试，不再轮询；
+ * 加锁前先经过本地锁 {@link LocalKeyLock}，同一节点同一把锁只有一个线程访问redis
  * @author meidaia
  */
+@Slf4j
+@Component
 public class SimpleRedisLock {
-    private final StringRedisTemplate redisTemplate;
     private static final String VALUE_PREFIX = UUID.randomUUID().toString(true);
 
-    public SimpleRedisLock(StringRedisTemplate redisTemplate) {
-        this.redisTemplate = redisTemplate;
-    }
+    private static final DefaultRedisScript<Long> LOCK_SCRIPT;
     private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
     static {
+        LOCK_SCRIPT = new DefaultRedisScript<>();
+        LOCK_SCRIPT.setLocation(new ClassPathResource("lock.lua"));
+        LOCK_SCRIPT.setResultType(Long.class);
         UNLOCK_SCRIPT = new DefaultRedisScript<>();
         UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
         UNLOCK_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("lock_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    // 看门狗线程
+    private static final ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "redis-lock-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+    static {
+        WATCHDOG.setRemoveOnCancelPolicy(true);
     }
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Autowired
+    private LocalKeyLock localKeyLock;
+
+    // 锁的key:线程标识 -> 续期任务
+    private final Map<String, ScheduledFuture<?>> renewals = new ConcurrentHashMap<>();
+    // 锁的key -> 等待释放通知的线程
+    private final Map<String, Set<CompletableFuture<Void>>> waiters = new ConcurrentHashMap<>();
+
     /**
-     *  尝试获取锁
+     *  尝试获取锁，不续期
      * @param millis 锁的过期时间
      * @param name 锁名称
      * @return 获取锁成功返回true，获取锁失败返回false
      */
     public boolean tryLock(Long millis, String name) {
         String key = LOCK_PREFIX + name;
-        String value = VALUE_PREFIX + "-" + Thread.currentThread().getId();
+        return localKeyLock.tryLock(key, () -> acquire(key, owner(), millis) == null);
+    }
 
-        Boolean ret = redisTemplate.opsForValue().setIfAbsent(key, value, millis, TimeUnit.MILLISECONDS);
-        return Boolean.TRUE.equals(ret);
+    /**
+     * 尝试获取锁，持有期间由看门狗续期
+     * @param name 锁名称
+     * @return 获取锁成功返回true，获取锁失败返回false
+     */
+    public boolean tryLock(String name) {
+        String key = LOCK_PREFIX + name;
+        String owner = owner();
+        if (!localKeyLock.tryLock(key, () -> acquire(key, owner, watchdogMillis()) == null)) {
+            return false;
+        }
+        startRenewal(key, owner);
+        return true;
     }
 
     /**
-     * 释放锁 1 成功 0 失败
+     * 获取锁，锁被占用时等待释放通知，持有期间由看门狗续期
+     * @param name 锁名称
+     * @param timeout 最长等待时间
+     * @param timeUnit 时间单位
+     * @return 超时前获取到锁返回true
+     */
+    public boolean lock(String name, long timeout, TimeUnit timeUnit) throws InterruptedException {
+        String key = LOCK_PREFIX + name;
+        String owner = owner();
+        // 本地排队，轮到时再竞争分布式锁
+        if (!localKeyLock.lock(key, timeout, timeUnit, (remaining, unit) -> await(key, owner, remaining, unit))) {
+            return false;
+        }
+        startRenewal(key, owner);
+        return true;
+    }
+
+    /**
+     * 获取分布式锁，锁被其他节点占用时等待释放通知
+     */
+    private boolean await(String key, String owner, long timeout, TimeUnit timeUnit) throws InterruptedException {
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+        Long ttl = acquire(key, owner, watchdogMillis());
+        if (ttl != null) {
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            addWaiter(key, waiter);
+            try {
+                while (true) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    // 等待释放通知，通知丢失时最多等到锁过期
+                    long wait = ttl > 0 ? Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(ttl)) : remaining;
+                    try {
+                        waiter.get(wait, TimeUnit.NANOSECONDS);
+                    } catch (TimeoutException | ExecutionException ignored) {
+                    }
+                    // 先换成新的通知再重试，避免重试后、等待前错过通知
+                    CompletableFuture<Void> next = new CompletableFuture<>();
+                    addWaiter(key, next);
+                    removeWaiter(key, waiter);
+                    waiter = next;
+                    ttl = acquire(key, owner, watchdogMillis());
+                    if (ttl == null) {
+                        break;
+                    }
+                }
+            } finally {
+                removeWaiter(key, waiter);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 释放锁 1 成功 2 重入次数减一，仍然持有 0 失败(锁不属于当前线程)
      *
      * @param name 锁名称
      * @return 释放锁结果
      */
     public Long unLock(String name) {
         String key = LOCK_PREFIX + name;
-        String value = VALUE_PREFIX + "-" + Thread.currentThread().getId();
+        String owner = owner();
+        try {
+            Long ret = redisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(key), owner, LOCK_RELEASE_CHANNEL);
+            if (ret == null || ret != 2) {
+                stopRenewal(key, owner);
+            }
+            return ret;
+        } finally {
+            localKeyLock.unlock(key);
+        }
+    }
+
+    /**
+     * 收到锁释放广播，唤醒本节点等待该锁的线程
+     * @param key 锁的key
+     */
+    public void onRelease(String key) {
+        Set<CompletableFuture<Void>> set = waiters.get(key);
+        if (set != null) {
+            set.forEach(waiter -> waiter.complete(null));
+        }
+    }
+
+    /**
+     * 加锁
+     * @return 获取成功返回null，失败返回锁的剩余有效期，单位毫秒
+     */
+    private Long acquire(String key, String owner, long millis) {
+        return redisTemplate.execute(LOCK_SCRIPT, Collections.singletonList(key), owner, String.valueOf(millis));
+    }
+
+    /**
+     * 开始续期，重入时沿用已有的续期任务
+     */
+    private void startRenewal(String key, String owner) {
+        long period = watchdogMillis() / 3;
+        renewals.computeIfAbsent(key + ":" + owner, k -> WATCHDOG.scheduleAtFixedRate(() -> {
+            try {
+                Long renewed = redisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(key),
+                        owner, String.valueOf(watchdogMillis()));
+                if (renewed == null || renewed == 0) {
+                    // 锁已被释放或已过期
+                    stopRenewal(key, owner);
+                }
+            } catch (Exception e) {
+                log.warn("锁 {} 续期失败：{}", key, e.getMessage());
+            }
+        }, period, period, TimeUnit.MILLISECONDS));
+    }
+
+    private void stopRenewal(String key, String owner) {
+        ScheduledFuture<?> renewal = renewals.remove(key + ":" + owner);
+        if (renewal != null) {
+            renewal.cancel(false);
+        }
+    }
+
+    private void addWaiter(String key, CompletableFuture<Void> waiter) {
+        waiters.compute(key, (k, set) -> {
+            if (set == null) {
+                set = ConcurrentHashMap.newKeySet();
+            }
+            set.add(waiter);
+            return set;
+        });
+    }
+
+    private void removeWaiter(String key, CompletableFuture<Void> waiter) {
+        waiters.computeIfPresent(key, (k, set) -> {
+            set.remove(waiter);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private static String owner() {
+        return VALUE_PREFIX + "-" + Thread.currentThread().getId();
+    }
 
-        return redisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(key), value);
+    private static long watchdogMillis() {
+        return TimeUnit.SECONDS.toMillis(LOCK_WATCHDOG_TTL);
     }
 }
@@ -0,0 +1,114 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 进程内请求合并
+ * 同一个key的并发加载只有一个线程真正执行，其余线程共享同一个结果；
+ * 同时提供按key等待缓存写入通知的能力，代替固定时间的休眠轮询
+ * @author meidaia
+ */
+@Component
+public class SingleFlight {
+    // 正在执行的加载
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+    // 等待缓存写入通知的key
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> watchers = new ConcurrentHashMap<>();
+
+    /**
+     * 执行加载，同一个key同一时刻只会执行一次
+     * @param key 缓存的key
+     * @param loader 加载方法
+     * @return 加载结果
+     * @param <T> 数据类型
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader) {
+        CompletableFuture<Object> call = new CompletableFuture<>();
+        CompletableFuture<Object> running = calls.putIfAbsent(key, call);
+        if (running != null) {
+            // 已有线程在加载，等待其结果
+            try {
+                return (T) running.join();
+            } catch (CompletionException e) {
+                throw unwrap(e.getCause());
+            }
+        }
+        try {
+            T value = loader.get();
+            call.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+
+    /**
+     * 开始监听key的写入通知，需要在查询redis之前调用，避免错过通知
+     * @param key 缓存的key
+     * @return 通知
+     */
+    public CompletableFuture<Void> watch(String key) {
+        return watchers.computeIfAbsent(key, k -> new CompletableFuture<>());
+    }
+
+    /**
+     * 取消监听
+     * @param key 缓存的key
+     * @param watcher 通知
+     */
+    public void unwatch(String key, CompletableFuture<Void> watcher) {
+        watchers.remove(key, watcher);
+    }
+
+    /**
+     * 等待写入通知，超时后返回，由调用方重新查询
+     * @param watcher 通知
+     * @param timeout 超时时间
+     * @param timeUnit 时间单位
+     * @return 线程被中断时返回false，中断标记保留，调用方应停止等待
+     */
+    public boolean await(CompletableFuture<Void> watcher, long timeout, TimeUnit timeUnit) {
+        try {
+            watcher.get(timeout, timeUnit);
+        } catch (TimeoutException | ExecutionException ignored) {
+            // 超时由调用方重新查询
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * key已写入缓存，唤醒等待的线程
+     * @param key 缓存的key
+     */
+    public void wake(String key) {
+        CompletableFuture<Void> watcher = watchers.remove(key);
+        if (watcher != null) {
+            watcher.complete(null);
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new RuntimeException(e);
+    }
+}
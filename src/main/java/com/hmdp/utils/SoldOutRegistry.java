@@ -0,0 +1,100 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀券售罄标记
+ * 秒杀脚本返回库存不足后标记售罄并广播给所有节点，之后的请求在本地直接拒绝，不再访问redis；
+ * 每秒检查一次已售罄券的redis库存(分片时为各分片之和)，库存恢复后自动清除标记；
+ * 秒杀已结束或库存已删除的券不再检查，直接移除标记，由redis脚本返回结果
+ * 广播消息格式为 优惠券id:1(售罄) 或 优惠券id:0(恢复)
+ * @author meidaia
+ */
+@Slf4j
+@Component
+public class SoldOutRegistry {
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Autowired
+    private SeckillStock seckillStock;
+
+    // 已售罄的优惠券id
+    private final Set<Long> soldOut = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 优惠券是否已售罄
+     * @param voucherId 优惠券id
+     */
+    public boolean isSoldOut(Long voucherId) {
+        return soldOut.contains(voucherId);
+    }
+
+    /**
+     * 标记售罄，并广播给其他节点
+     * @param voucherId 优惠券id
+     */
+    public void markSoldOut(Long voucherId) {
+        if (soldOut.add(voucherId)) {
+            redisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId + ":1");
+            log.info("优惠券 {} 已售罄", voucherId);
+        }
+    }
+
+    /**
+     * 清除售罄标记，并广播给其他节点，库存补充后调用
+     * @param voucherId 优惠券id
+     */
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        redisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId + ":0");
+    }
+
+    /**
+     * 只修改本节点的标记，收到广播时调用
+     * @param voucherId 优惠券id
+     * @param isSoldOut 是否售罄
+     */
+    public void setLocal(Long voucherId, boolean isSoldOut) {
+        if (isSoldOut) {
+            soldOut.add(voucherId);
+        } else {
+            soldOut.remove(voucherId);
+        }
+    }
+
+    /**
+     * 检查已售罄券的库存，库存恢复(包括直接修改redis)时清除标记
+     * 只清除本节点，其他节点各自检查，避免广播风暴
+     */
+    @Scheduled(fixedRate = 1000)
+    public void recheck() {
+        if (soldOut.isEmpty()) {
+            return;
+        }
+        for (Long id : new ArrayList<>(soldOut)) {
+            if (seckillStock.isEnded(id)) {
+                soldOut.remove(id);
+                log.info("优惠券 {} 秒杀已结束，不再检查库存", id);
+                continue;
+            }
+            Long stock = seckillStock.remaining(id);
+            if (stock == null) {
+                soldOut.remove(id);
+                log.info("优惠券 {} 库存已删除，不再检查库存", id);
+            } else if (stock > 0) {
+                soldOut.remove(id);
+                log.info("优惠券 {} 库存恢复为 {}，清除售罄标记", id, stock);
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+---
+--- 可重入锁加锁，锁为hash：线程标识 -> 重入次数
+--- KEYS[1] 锁的key，ARGV[1] 线程标识，ARGV[2] 有效期，单位毫秒
+--- 获取成功返回nil，失败返回锁的剩余有效期
+---
+
+if (redis.call('exists', KEYS[1]) == 0 or redis.call('hexists', KEYS[1], ARGV[1]) == 1) then
+    redis.call('hincrby', KEYS[1], ARGV[1], 1);
+    redis.call('pexpire', KEYS[1], ARGV[2]);
+    return nil;
+end
+return redis.call('pttl', KEYS[1]);
@@ -0,0 +1,9 @@
+---
+--- 锁续期，锁仍属于当前线程时重置有效期
+--- KEYS[1] 锁的key，ARGV[1] 线程标识，ARGV[2] 有效期，单位毫秒
+---
+
+if (redis.call('hexists', KEYS[1], ARGV[1]) == 1) then
+    return redis.call('pexpire', KEYS[1], ARGV[2]);
+end
+return 0;
@@ -2,13 +2,39 @@
 --- Created by meida.
 --- DateTime: 2025/11/10 11:40
 ---
+-- 读取服务器时间后还有写操作，按命令复制；redis 5以上默认按命令复制，没有该函数的实现直接跳过
+if (redis.replicate_commands) then
+    redis.replicate_commands()
+end
+
 local vocherId = ARGV[1]
 local userID = ARGV[2]
 
 local stockKey = "seckill:stock:" .. vocherId
 local orderKey = "seckill:order:" .. vocherId
+local voucherKey = "seckill:voucher:" .. vocherId
 
-if (tonumber(redis.call('get', stockKey)) <= 0) then
+-- 校验秒杀时间窗口，使用redis服务器时间(毫秒)，没有时间窗口的不校验
+local window = redis.call('hmget', voucherKey, 'begin', 'end')
+local beginTime = tonumber(window[1])
+local endTime = tonumber(window[2])
+if (beginTime or endTime) then
+    local time = redis.call('time')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (beginTime and now < beginTime) then
+        return 3
+    end
+    if (endTime and now > endTime) then
+        return 4
+    end
+end
+
+local stock = tonumber(redis.call('get', stockKey))
+-- 库存还没有写入(预加载未完成或redis数据丢失)，按未开始处理，不能标记售罄
+if (stock == nil) then
+    return 3
+end
+if (stock <= 0) then
     return 1
 end
 if (redis.call('sismember', orderKey, userID) == 1) then
@@ -0,0 +1,14 @@
+---
+--- 从当前时间窗口的全局配额中租用一批令牌
+--- KEYS[1] 时间窗口的配额key，ARGV[1] 窗口内的全局配额，ARGV[2] 每次租用的令牌数，ARGV[3] key的过期时间(毫秒)
+--- 返回实际租到的令牌数，0表示配额已用完
+---
+local used = tonumber(redis.call('get', KEYS[1]) or '0')
+local limit = tonumber(ARGV[1])
+if (used >= limit) then
+    return 0
+end
+local grant = math.min(tonumber(ARGV[2]), limit - used)
+redis.call('incrby', KEYS[1], grant)
+redis.call('pexpire', KEYS[1], ARGV[3])
+return grant
@@ -0,0 +1,44 @@
+---
+--- 分片库存秒杀，库存key和订单key使用相同的hash tag，位于同一个slot
+--- KEYS[1] 分片库存key，KEYS[2] 用户所属分片的订单key，KEYS[3] 用户所属分片的优惠券信息key，ARGV[1] 用户id
+--- 返回 0 成功(已扣减并记录用户)，1 该分片库存不足(不记录用户，由调用方到其他分片扣减)，2 重复下单，3 未开始或库存未写入，4 已结束
+---
+-- 读取服务器时间后还有写操作，按命令复制；redis 5以上默认按命令复制，没有该函数的实现直接跳过
+if (redis.replicate_commands) then
+    redis.replicate_commands()
+end
+
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local voucherKey = KEYS[3]
+local userId = ARGV[1]
+
+-- 校验秒杀时间窗口，使用redis服务器时间(毫秒)，没有时间窗口的不校验
+local window = redis.call('hmget', voucherKey, 'begin', 'end')
+local beginTime = tonumber(window[1])
+local endTime = tonumber(window[2])
+if (beginTime or endTime) then
+    local time = redis.call('time')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (beginTime and now < beginTime) then
+        return 3
+    end
+    if (endTime and now > endTime) then
+        return 4
+    end
+end
+
+if (redis.call('sismember', orderKey, userId) == 1) then
+    return 2
+end
+local stock = tonumber(redis.call('get', stockKey))
+-- 库存还没有写入，按未开始处理，不记录用户，不能标记售罄
+if (stock == nil) then
+    return 3
+end
+if (stock <= 0) then
+    return 1
+end
+redis.call('incrby', stockKey, -1)
+redis.call('sadd', orderKey, userId)
+return 0
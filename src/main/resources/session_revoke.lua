@@ -0,0 +1,11 @@
+---
+--- 登出签名凭证的会话：删除会话和会话当前的刷新凭证
+--- KEYS[1] 会话key，ARGV[1] 刷新凭证key的前缀
+--- 返回 1 已删除，0 会话不存在(已登出或已过期)
+---
+local refreshToken = redis.call('get', KEYS[1])
+if (not refreshToken) then
+    return 0
+end
+redis.call('del', KEYS[1], ARGV[1] .. refreshToken)
+return 1
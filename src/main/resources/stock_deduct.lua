@@ -0,0 +1,11 @@
+---
+--- 扣减单个分片的库存
+--- KEYS[1] 分片库存key
+--- 返回 1 扣减成功，0 库存不足
+---
+local stock = tonumber(redis.call('get', KEYS[1]))
+if (stock == nil or stock <= 0) then
+    return 0
+end
+redis.call('incrby', KEYS[1], -1)
+return 1
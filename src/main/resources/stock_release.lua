@@ -0,0 +1,10 @@
+---
+--- 回滚一次秒杀扣减：删除已购记录并归还一个库存
+--- KEYS[1] 库存key(分片时为用户所属分片)，KEYS[2] 订单key，ARGV[1] 用户id
+--- 返回 1 已回滚，0 没有该用户的已购记录
+---
+if (redis.call('srem', KEYS[2], ARGV[1]) == 0) then
+    return 0
+end
+redis.call('incrby', KEYS[1], 1)
+return 1
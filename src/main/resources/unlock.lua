@@ -3,8 +3,16 @@
 --- DateTime: 2025/11/10 10:25
 ---
 
--- 获取reids中的值，如果匹配则删除
-if (redis.call('get', KEYS[1]) == ARGV[1]) then
-    return redis.call('del', KEYS[1]);
+-- 可重入锁解锁，KEYS[1] 锁的key，ARGV[1] 线程标识，ARGV[2] 释放通知的频道
+-- 锁不属于当前线程返回0，完全释放返回1，重入次数减一后仍持有返回2
+if (redis.call('hexists', KEYS[1], ARGV[1]) == 0) then
+    return 0;
 end
-return 0;
\ No newline at end of file
+-- 仍持有时保留原有效期：指定有效期的锁不会被延长，看门狗锁继续由看门狗续期
+if (redis.call('hincrby', KEYS[1], ARGV[1], -1) > 0) then
+    return 2;
+end
+-- 完全释放，通知等待的线程
+redis.call('del', KEYS[1]);
+redis.call('publish', ARGV[2], KEYS[1]);
+return 1;